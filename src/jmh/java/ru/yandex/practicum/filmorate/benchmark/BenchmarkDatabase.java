@@ -0,0 +1,147 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.flywaydb.core.Flyway;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.storage.event.EventDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.GenreDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.film.MpaDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.PopularityIndex;
+import ru.yandex.practicum.filmorate.storage.film.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import javax.sql.DataSource;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Отдельная база H2 в памяти с миграциями приложения и собранными вручную хранилищами.
+ * Данные генерируются детерминированно, чтобы результаты разных запусков были сравнимы.
+ */
+public class BenchmarkDatabase implements AutoCloseable {
+    private final DataSource dataSource;
+    private final Random random = new Random(42);
+
+    final JdbcTemplate jdbcTemplate;
+    final DataSourceTransactionManager transactionManager;
+    final PopularityIndex popularityIndex = new PopularityIndex();
+    final FriendGraph friendGraph = new FriendGraph();
+    final LikeIndex likeIndex = new LikeIndex();
+    final FilmSearchIndex searchIndex = new FilmSearchIndex(popularityIndex);
+    final EventDbStorage eventStorage;
+    final FilmDbStorage filmStorage;
+    final UserDbStorage userStorage;
+    final ReferenceDataCache referenceDataCache;
+    final FilmService filmService;
+    // те же настройки дат, что у ObjectMapper из Spring Boot
+    final ObjectMapper objectMapper = JsonMapper.builder()
+            .findAndAddModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+
+    public BenchmarkDatabase() {
+        this(new SingleConnectionDataSource(newUrl(), "sa", "", true));
+    }
+
+    /**
+     * База поверх внешнего источника соединений, например пула; закрывать пул должен вызывающий.
+     */
+    public BenchmarkDatabase(DataSource dataSource) {
+        this.dataSource = dataSource;
+        Flyway.configure().dataSource(dataSource).load().migrate();
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionManager = new DataSourceTransactionManager(dataSource);
+        eventStorage = new EventDbStorage(jdbcTemplate);
+        filmStorage = new FilmDbStorage(jdbcTemplate, transactionManager, popularityIndex, likeIndex, searchIndex,
+                eventStorage, Optional.empty());
+        userStorage = new UserDbStorage(jdbcTemplate, popularityIndex, friendGraph, likeIndex, eventStorage);
+        referenceDataCache = new ReferenceDataCache(new GenreDbStorage(jdbcTemplate), new MpaDbStorage(jdbcTemplate));
+        referenceDataCache.refresh();
+        filmService = new FilmService(filmStorage, userStorage, referenceDataCache);
+    }
+
+    public void seed(int films, int users, int likesPerUser, int friendsPerUser) {
+        List<Film> newFilms = new ArrayList<>(films);
+        for (int i = 0; i < films; i++) {
+            newFilms.add(film(i));
+        }
+        filmStorage.createAll(newFilms);
+
+        List<User> newUsers = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            newUsers.add(user(i));
+        }
+        userStorage.createAll(newUsers);
+
+        List<Object[]> likes = new ArrayList<>();
+        List<Object[]> friendships = new ArrayList<>();
+        for (User user : newUsers) {
+            random.ints(0, films).distinct().limit(Math.min(likesPerUser, films))
+                    .forEach(i -> likes.add(new Object[]{newFilms.get(i).getId(), user.getId()}));
+            random.ints(0, users).filter(i -> newUsers.get(i).getId() != user.getId()).distinct()
+                    .limit(Math.min(friendsPerUser, users - 1))
+                    .forEach(i -> friendships.add(new Object[]{user.getId(), newUsers.get(i).getId()}));
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO likes (film_id, user_id) VALUES (?, ?)", likes);
+        jdbcTemplate.batchUpdate("INSERT INTO friendships (user_id, friend_id) VALUES (?, ?)", friendships);
+        filmStorage.rebuildPopularityIndex();
+        filmStorage.rebuildLikeIndex();
+        userStorage.rebuildFriendGraph();
+    }
+
+    public static String newUrl() {
+        return "jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+    }
+
+    public int randomId(String table, String column) {
+        Integer max = jdbcTemplate.queryForObject("SELECT MAX(" + column + ") FROM " + table, Integer.class);
+        return 1 + random.nextInt(max == null ? 1 : max);
+    }
+
+    public Film film(int i) {
+        Film film = new Film();
+        film.setName("Фильм " + i);
+        film.setDescription("Описание фильма номер " + i);
+        film.setReleaseDate(LocalDate.of(1950 + random.nextInt(70), 1 + random.nextInt(12), 1));
+        film.setDuration(60 + random.nextInt(120));
+        film.setMpa(new Mpa(1 + random.nextInt(5), null));
+        film.setGenres(Set.of(new Genre(1 + random.nextInt(6), null)));
+        return film;
+    }
+
+    public User user(int i) {
+        User user = new User();
+        user.setEmail("user" + i + "@mail.ru");
+        user.setLogin("user" + i);
+        user.setName("Пользователь " + i);
+        user.setBirthday(LocalDate.of(1970 + random.nextInt(40), 1 + random.nextInt(12), 1));
+        return user;
+    }
+
+    @Override
+    public void close() {
+        jdbcTemplate.execute("SHUTDOWN");
+        if (dataSource instanceof SingleConnectionDataSource singleConnection) {
+            singleConnection.destroy();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.EventOperation;
+import ru.yandex.practicum.filmorate.model.EventType;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Страница ленты пользователя с friends друзьями: слияние потоков друзей кучей против одного
+ * SQL-запроса, который отбирает события всех друзей и сортирует их. В журнале 200 тысяч
+ * событий 10 тысяч пользователей вперемешку; при catalog=true каждое сотое - добавление фильма,
+ * которое попадает в любую ленту. Без них события друзей в журнале редки, и запросу
+ * приходится просматривать журнал далеко вглубь, чтобы набрать страницу.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FeedBenchmark {
+    private static final int USERS = 10_000;
+    private static final int EVENTS = 200_000;
+    private static final int PAGE = 50;
+    private static final String SQL_FAN_IN = "SELECT event_id, created_at, user_id, event_type, operation, " +
+            "entity_id FROM events WHERE user_id IN (SELECT friend_id FROM friendships WHERE user_id = ?) " +
+            "OR user_id IS NULL ORDER BY event_id DESC LIMIT ?";
+
+    @Param({"10", "100", "1000"})
+    private int friends;
+
+    @Param({"true", "false"})
+    private boolean catalog;
+
+    private BenchmarkDatabase database;
+    private int userId;
+    private int[] friendIds;
+    private int secondPageBefore;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        List<User> users = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            users.add(database.user(i));
+        }
+        database.userStorage.createAll(users);
+        userId = users.get(0).getId();
+
+        List<Object[]> friendships = new ArrayList<>();
+        for (int i = 1; i <= friends; i++) {
+            friendships.add(new Object[]{userId, users.get(i * (USERS - 1) / friends).getId()});
+        }
+        database.jdbcTemplate.batchUpdate("INSERT INTO friendships (user_id, friend_id) VALUES (?, ?)", friendships);
+        database.userStorage.rebuildFriendGraph();
+        friendIds = database.userStorage.getFriendIds(userId);
+
+        Random random = new Random(42);
+        List<Event> events = new ArrayList<>(EVENTS);
+        for (int i = 0; i < EVENTS; i++) {
+            events.add(catalog && i % 100 == 0
+                    ? Event.of(null, EventType.FILM, EventOperation.ADD, i)
+                    : Event.of(users.get(random.nextInt(USERS)).getId(), EventType.LIKE, EventOperation.ADD, i));
+        }
+        database.eventStorage.addAll(events);
+        database.eventStorage.rebuildLastEvents();
+        secondPageBefore = database.eventStorage.getFeed(friendIds, Integer.MAX_VALUE, PAGE).getLast().getEventId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<Event> heapMerge() {
+        return database.eventStorage.getFeed(friendIds, Integer.MAX_VALUE, PAGE);
+    }
+
+    @Benchmark
+    public List<Event> heapMergeSecondPage() {
+        return database.eventStorage.getFeed(friendIds, secondPageBefore, PAGE);
+    }
+
+    @Benchmark
+    public int sqlFanIn() {
+        return database.jdbcTemplate.queryForList(SQL_FAN_IN, userId, PAGE).size();
+    }
+}
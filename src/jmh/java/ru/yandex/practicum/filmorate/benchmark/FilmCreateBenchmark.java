@@ -0,0 +1,65 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Запись фильмов: FilmService.create по одному и пакетная вставка FilmStorage.createAll.
+ * Оба варианта считаются в пересчёте на один фильм, поэтому результаты можно сравнивать напрямую.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FilmCreateBenchmark {
+    private static final int BATCH = 1000;
+
+    private BenchmarkDatabase database;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        database.seed(1000, 100, 10, 10);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public Film serviceCreate() {
+        return database.filmService.create(database.film(counter++));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void singleInserts() {
+        for (int i = 0; i < BATCH; i++) {
+            database.filmStorage.create(database.film(counter++));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Film> batchInsert() {
+        List<Film> films = new ArrayList<>(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            films.add(database.film(counter++));
+        }
+        return database.filmStorage.createAll(films);
+    }
+}
@@ -0,0 +1,92 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
+import ru.yandex.practicum.filmorate.model.Film;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Тело страницы GET /films без HTTP: полное и компактное представление, с Blackbird и без,
+ * с gzip и без. Время - CPU на один ответ; размер тела на проводе - отношение счётчиков
+ * wireBytes / responses в отчёте JMH.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FilmPageSerializationBenchmark {
+    @Param({"100", "1000"})
+    private int pageSize;
+
+    @Param({"full", "compact"})
+    private String view;
+
+    @Param({"false", "true"})
+    private boolean blackbird;
+
+    @Param({"identity", "gzip"})
+    private String encoding;
+
+    private BenchmarkDatabase database;
+    private ObjectMapper mapper;
+    private List<?> page;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        database = new BenchmarkDatabase();
+        database.seed(pageSize, 10, 0, 0);
+        mapper = blackbird ? database.objectMapper.copy().registerModule(new BlackbirdModule()) : database.objectMapper;
+        List<Film> films = database.filmStorage.getPage(0, pageSize);
+        page = "compact".equals(view) ? films.stream().map(CompactFilm::of).toList() : films;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public byte[] serialize(WireSize wireSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = "gzip".equals(encoding) ? new GZIPOutputStream(bytes) : bytes) {
+            mapper.writeValue(out, page);
+        }
+        byte[] body = bytes.toByteArray();
+        wireSize.wireBytes += body.length;
+        wireSize.responses++;
+        return body;
+    }
+
+    /**
+     * Счётчики размера тела. JMH суммирует их за итерацию, поэтому байты на ответ считаются делением.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class WireSize {
+        public long wireBytes;
+        public long responses;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            wireBytes = 0;
+            responses = 0;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.yandex.practicum.filmorate.config.LikeWriteBehindProperties;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeWriteBehind;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Всплеск лайков к нескольким фильмам премьеры: каждый пользователь ставит лайк, в следующей
+ * операции снимает его. Синхронная запись против отложенной, где операция заканчивается
+ * записью всей пачки, так что объём изменений в базе одинаков.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class LikeStormBenchmark {
+    private static final int HOT_FILMS = 10;
+
+    @Param({"sync", "write-behind"})
+    private String mode;
+
+    @Param({"1000"})
+    private int users;
+
+    private BenchmarkDatabase database;
+    private FilmDbStorage filmStorage;
+    private LikeWriteBehind writeBehind;
+    private int firstFilmId;
+    private int firstUserId;
+    private boolean like = true;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        database.seed(100, users, 0, 0);
+        firstFilmId = database.jdbcTemplate.queryForObject("SELECT MIN(film_id) FROM films", Integer.class);
+        firstUserId = database.jdbcTemplate.queryForObject("SELECT MIN(user_id) FROM users", Integer.class);
+
+        if (mode.equals("write-behind")) {
+            LikeWriteBehindProperties properties = new LikeWriteBehindProperties();
+            properties.setCapacity(users * 2);
+            writeBehind = new LikeWriteBehind(database.jdbcTemplate, database.transactionManager,
+                    database.popularityIndex, database.likeIndex, database.eventStorage, properties);
+            filmStorage = new FilmDbStorage(database.jdbcTemplate, database.transactionManager,
+                    database.popularityIndex, database.likeIndex, database.searchIndex, database.eventStorage,
+                    Optional.of(writeBehind));
+        } else {
+            filmStorage = database.filmStorage;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public int storm() {
+        for (int i = 0; i < users; i++) {
+            int filmId = firstFilmId + i % HOT_FILMS;
+            if (like) {
+                filmStorage.addLike(filmId, firstUserId + i);
+            } else {
+                filmStorage.removeLike(filmId, firstUserId + i);
+            }
+        }
+        like = !like;
+        return writeBehind == null ? users : writeBehind.flush();
+    }
+}
@@ -0,0 +1,57 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.yandex.practicum.filmorate.config.PopularResponseCacheProperties;
+import ru.yandex.practicum.filmorate.service.PopularResponseCache;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ответ /films/popular без HTTP: построение топа с сериализацией Jackson на каждый запрос
+ * против готовых байтов из кэша ответов.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PopularResponseBenchmark {
+    @Param({"10", "100"})
+    private int count;
+
+    private BenchmarkDatabase database;
+    private PopularResponseCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        database.seed(10_000, 1000, 20, 0);
+        PopularResponseCacheProperties properties = new PopularResponseCacheProperties();
+        properties.setMaxStaleness(Duration.ofHours(1));
+        cache = new PopularResponseCache(database.filmService, database.popularityIndex, database.objectMapper,
+                properties);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public byte[] serializeEachRequest() throws Exception {
+        return database.objectMapper.writeValueAsBytes(database.filmService.getPopular(count, null, null));
+    }
+
+    @Benchmark
+    public byte[] cachedBytes() {
+        return cache.get(count, null, null).json();
+    }
+}
@@ -0,0 +1,86 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.PopularityIndex;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поиск по полнотекстовому индексу без базы: каталог из films фильмов, слова названий
+ * и описаний выбираются из словаря с перекосом в сторону первых слов, как в живом тексте.
+ * Частое слово попадает примерно в каждый второй фильм, редкое - в единицы.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchIndexBenchmark {
+    private static final int VOCABULARY = 50_000;
+    private static final Set<FilmSearchIndex.Field> ALL_FIELDS = EnumSet.allOf(FilmSearchIndex.Field.class);
+
+    @Param({"1000000"})
+    private int films;
+
+    private FilmSearchIndex searchIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        PopularityIndex popularityIndex = new PopularityIndex();
+        searchIndex = new FilmSearchIndex(popularityIndex);
+        List<PopularityIndex.FilmStats> stats = new ArrayList<>(films);
+        List<FilmSearchIndex.FilmText> texts = new ArrayList<>(films);
+        for (int filmId = 1; filmId <= films; filmId++) {
+            stats.add(new PopularityIndex.FilmStats(filmId, random.nextInt(1000), 2000, List.of()));
+            texts.add(new FilmSearchIndex.FilmText(filmId, text(random, 3), text(random, 20)));
+        }
+        popularityIndex.rebuild(stats);
+        searchIndex.rebuild(texts);
+    }
+
+    @Benchmark
+    public List<Integer> commonWord() {
+        return searchIndex.search(word(0), ALL_FIELDS, 10);
+    }
+
+    @Benchmark
+    public List<Integer> rareWord() {
+        return searchIndex.search(word(VOCABULARY - 1), ALL_FIELDS, 10);
+    }
+
+    @Benchmark
+    public List<Integer> twoWords() {
+        return searchIndex.search(word(3) + " " + word(40), ALL_FIELDS, 10);
+    }
+
+    @Benchmark
+    public List<Integer> titleOnly() {
+        return searchIndex.search(word(40), EnumSet.of(FilmSearchIndex.Field.TITLE), 10);
+    }
+
+    private static String text(Random random, int words) {
+        StringJoiner text = new StringJoiner(" ");
+        for (int i = 0; i < words; i++) {
+            text.add(word((int) (Math.pow(random.nextDouble(), 4) * VOCABULARY)));
+        }
+        return text.toString();
+    }
+
+    private static String word(int index) {
+        return "слово" + index;
+    }
+}
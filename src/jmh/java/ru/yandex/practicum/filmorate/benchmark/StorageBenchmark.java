@@ -0,0 +1,106 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.User;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Горячие пути чтения из FilmDbStorage и UserDbStorage на базе заданного объёма.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StorageBenchmark {
+    @Param({"1000", "10000"})
+    private int films;
+
+    @Param({"1000"})
+    private int users;
+
+    @Param({"20"})
+    private int likesPerUser;
+
+    @Param({"50"})
+    private int friendsPerUser;
+
+    private BenchmarkDatabase database;
+    private int filmId;
+    private int userId;
+    private int otherUserId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = new BenchmarkDatabase();
+        database.seed(films, users, likesPerUser, friendsPerUser);
+    }
+
+    @Setup(Level.Iteration)
+    public void pickIds() {
+        filmId = database.randomId("films", "film_id");
+        userId = database.randomId("users", "user_id");
+        otherUserId = database.randomId("users", "user_id");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Film> getAll() {
+        return database.filmStorage.getAll();
+    }
+
+    @Benchmark
+    public List<Film> getPopular() {
+        return database.filmStorage.getPopular(10, null, null);
+    }
+
+    @Benchmark
+    public List<Film> getPopularByGenre() {
+        return database.filmStorage.getPopular(10, 1, null);
+    }
+
+    @Benchmark
+    public List<Film> getPopularByGenreFromDb() {
+        return database.filmStorage.getPopularFromDb(10, 1, null);
+    }
+
+    @Benchmark
+    public Film getById() {
+        return database.filmStorage.getById(filmId);
+    }
+
+    @Benchmark
+    public List<User> getFriends() {
+        return database.userStorage.getFriends(userId);
+    }
+
+    @Benchmark
+    public List<User> getCommonFriends() {
+        return database.userStorage.getCommonFriends(userId, otherUserId);
+    }
+
+    @Benchmark
+    public List<User> getFriendSuggestions() {
+        return database.userStorage.getFriendSuggestions(userId, 10);
+    }
+
+    @Benchmark
+    public List<Film> getRecommendations() {
+        return database.filmStorage.getRecommendations(userId, 10);
+    }
+}
@@ -0,0 +1,101 @@
+package ru.yandex.practicum.filmorate.benchmark;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ru.yandex.practicum.filmorate.config.BoundedDataSource;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Нагрузочное сравнение режимов обработки запросов: пул из 200 потоков платформы, как у Tomcat
+ * по умолчанию, против виртуального потока на запрос с семафором перед пулом соединений.
+ * Каждая операция - пачка одновременных "запросов": чтение фильма и друзей пользователя
+ * плюс блокирующее ожидание вне базы (медленный клиент или внешний сервис).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ThreadModeBenchmark {
+    private static final int PLATFORM_THREADS = 200;
+    private static final int POOL_SIZE = 10;
+
+    @Param({"platform", "virtual"})
+    private String mode;
+
+    @Param({"2000"})
+    private int requests;
+
+    @Param({"5"})
+    private int latencyMillis;
+
+    private HikariDataSource pool;
+    private BenchmarkDatabase database;
+    private ExecutorService executor;
+    private int maxFilmId;
+    private int maxUserId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pool = new HikariDataSource();
+        pool.setJdbcUrl(BenchmarkDatabase.newUrl());
+        pool.setUsername("sa");
+        pool.setMaximumPoolSize(POOL_SIZE);
+        pool.setConnectionTimeout(Duration.ofSeconds(30).toMillis());
+
+        boolean virtual = mode.equals("virtual");
+        database = new BenchmarkDatabase(virtual
+                ? new BoundedDataSource(pool, POOL_SIZE, Duration.ofSeconds(30))
+                : pool);
+        database.seed(1000, 1000, 20, 50);
+        maxFilmId = database.jdbcTemplate.queryForObject("SELECT MAX(film_id) FROM films", Integer.class);
+        maxUserId = database.jdbcTemplate.queryForObject("SELECT MAX(user_id) FROM users", Integer.class);
+
+        executor = virtual
+                ? Executors.newVirtualThreadPerTaskExecutor()
+                : Executors.newFixedThreadPool(PLATFORM_THREADS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+        database.close();
+        pool.close();
+    }
+
+    @Benchmark
+    public int burst() throws Exception {
+        List<Future<Integer>> responses = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            responses.add(executor.submit(this::handleRequest));
+        }
+        int total = 0;
+        for (Future<Integer> response : responses) {
+            total += response.get();
+        }
+        return total;
+    }
+
+    private int handleRequest() throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int size = database.filmStorage.getById(1 + random.nextInt(maxFilmId)).getName().length();
+        size += database.userStorage.getFriends(1 + random.nextInt(maxUserId)).size();
+        Thread.sleep(latencyMillis);
+        return size;
+    }
+}
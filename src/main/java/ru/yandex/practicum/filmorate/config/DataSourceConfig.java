@@ -0,0 +1,62 @@
+package ru.yandex.practicum.filmorate.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+
+/**
+ * Пул соединений HikariCP с настройками из {@link PoolProperties}.
+ * Метрики пула (hikaricp.connections.*) публикуются через actuator автоматически.
+ * При spring.threads.virtual.enabled=true пул закрывается {@link BoundedDataSource},
+ * чтобы виртуальные потоки ждали соединения в очереди семафора, а не внутри пула.
+ */
+@Slf4j
+@Configuration
+@EnableConfigurationProperties(PoolProperties.class)
+public class DataSourceConfig {
+
+    @Bean
+    public DataSource dataSource(DataSourceProperties properties, PoolProperties pool, Environment environment) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .build();
+        dataSource.setPoolName("filmorate");
+        dataSource.setMaximumPoolSize(pool.getMaximumPoolSize());
+        dataSource.setMinimumIdle(pool.getMinimumIdle());
+        dataSource.setConnectionTimeout(pool.getConnectionTimeout().toMillis());
+        dataSource.setIdleTimeout(pool.getIdleTimeout().toMillis());
+        dataSource.setMaxLifetime(pool.getMaxLifetime().toMillis());
+        dataSource.setLeakDetectionThreshold(pool.getLeakDetectionThreshold().toMillis());
+        dataSource.addDataSourceProperty("QUERY_CACHE_SIZE", pool.getStatementCacheSize());
+
+        if (!Threading.VIRTUAL.isActive(environment)) {
+            return dataSource;
+        }
+        int permits = pool.getMaxConcurrentConnections() > 0
+                ? pool.getMaxConcurrentConnections()
+                : pool.getMaximumPoolSize();
+        log.info("Виртуальные потоки включены, одновременных соединений не больше {}", permits);
+        return new BoundedDataSource(dataSource, permits, pool.getConnectionTimeout());
+    }
+
+    @Bean
+    public MeterBinder boundedDataSourceMetrics(DataSource dataSource) {
+        return registry -> {
+            if (dataSource instanceof BoundedDataSource bounded) {
+                Gauge.builder("filmorate.db.bulkhead.available", bounded, BoundedDataSource::getAvailablePermits)
+                        .register(registry);
+                Gauge.builder("filmorate.db.bulkhead.waiting", bounded, BoundedDataSource::getQueueLength)
+                        .register(registry);
+            }
+        };
+    }
+}
@@ -0,0 +1,24 @@
+package ru.yandex.practicum.filmorate.config;
+
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Blackbird заменяет рефлексивный доступ Jackson к геттерам и сеттерам сгенерированными
+ * через LambdaMetafactory вызовами. Spring Boot сам добавляет модуль в ObjectMapper, так что
+ * ускоряются и ответы контроллеров, и выгрузка NDJSON. Выключается свойством
+ * filmorate.jackson.blackbird.enabled=false.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "filmorate.jackson.blackbird", name = "enabled", havingValue = "true",
+        matchIfMissing = true)
+public class JacksonConfig {
+
+    @Bean
+    public Module blackbirdModule() {
+        return new BlackbirdModule();
+    }
+}
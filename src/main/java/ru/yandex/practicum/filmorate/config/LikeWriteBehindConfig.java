@@ -0,0 +1,40 @@
+package ru.yandex.practicum.filmorate.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import ru.yandex.practicum.filmorate.storage.event.EventStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.film.LikeWriteBehind;
+import ru.yandex.practicum.filmorate.storage.film.PopularityIndex;
+
+/**
+ * Отложенная запись лайков, включается свойством filmorate.likes.write-behind.enabled=true.
+ * Без неё хранилище пишет каждый лайк в базу в самом запросе.
+ */
+@Configuration
+@EnableConfigurationProperties(LikeWriteBehindProperties.class)
+@ConditionalOnProperty(prefix = "filmorate.likes.write-behind", name = "enabled", havingValue = "true")
+public class LikeWriteBehindConfig {
+
+    @Bean
+    public LikeWriteBehind likeWriteBehind(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                           PopularityIndex popularityIndex, LikeIndex likeIndex,
+                                           EventStorage eventStorage, LikeWriteBehindProperties properties) {
+        return new LikeWriteBehind(jdbcTemplate, transactionManager, popularityIndex, likeIndex, eventStorage,
+                properties);
+    }
+
+    @Bean
+    public MeterBinder likeWriteBehindMetrics(LikeWriteBehind likeWriteBehind) {
+        return registry -> Gauge.builder("filmorate.likes.write-behind.pending", likeWriteBehind,
+                        LikeWriteBehind::getPending)
+                .description("Изменения лайков, ещё не записанные в базу")
+                .register(registry);
+    }
+}
@@ -0,0 +1,30 @@
+package ru.yandex.practicum.filmorate.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Настройки отложенной записи лайков (filmorate.likes.write-behind.*).
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "filmorate.likes.write-behind")
+public class LikeWriteBehindProperties {
+    /**
+     * Копить лайки в памяти и записывать пачками; по умолчанию лайк пишется в базу в самом запросе.
+     */
+    private boolean enabled = false;
+    /**
+     * Сколько разных пар (фильм, пользователь) может ждать записи. Когда очередь полна,
+     * запрос ждёт, пока фоновый поток запишет пачку, и только потом добавляет свой лайк.
+     */
+    private int capacity = 10_000;
+    /**
+     * Размер очереди, при котором запись запускается, не дожидаясь интервала.
+     */
+    private int batchSize = 500;
+    private Duration flushInterval = Duration.ofMillis(200);
+}
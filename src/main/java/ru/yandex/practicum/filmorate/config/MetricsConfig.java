@@ -0,0 +1,31 @@
+package ru.yandex.practicum.filmorate.config;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+
+/**
+ * Включает обработку {@link io.micrometer.core.annotation.Timed} на контроллерах и хранилищах:
+ * каждый метод получает таймер с тегами class и method.
+ */
+@Configuration
+public class MetricsConfig {
+    public static final String HTTP_TIMER = "filmorate.http";
+    public static final String DB_TIMER = "filmorate.db";
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry registry) {
+        return new TimedAspect(registry);
+    }
+
+    @Bean
+    public MeterBinder likeIndexMetrics(LikeIndex likeIndex) {
+        return registry -> Gauge.builder("filmorate.likes.index.pending", likeIndex, LikeIndex::getPendingChanges)
+                .description("Изменения лайков, ещё не применённые к индексу рекомендаций")
+                .register(registry);
+    }
+}
@@ -0,0 +1,33 @@
+package ru.yandex.practicum.filmorate.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Настройки пула соединений с базой (filmorate.datasource.pool.*).
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "filmorate.datasource.pool")
+public class PoolProperties {
+    private int maximumPoolSize = 10;
+    private int minimumIdle = 2;
+    private Duration connectionTimeout = Duration.ofSeconds(3);
+    private Duration idleTimeout = Duration.ofMinutes(10);
+    private Duration maxLifetime = Duration.ofMinutes(30);
+    /**
+     * Время, после которого невозвращённое в пул соединение логируется как утечка; 0 - проверка выключена.
+     */
+    private Duration leakDetectionThreshold = Duration.ZERO;
+    /**
+     * Размер кэша подготовленных запросов в каждой сессии H2 (QUERY_CACHE_SIZE).
+     */
+    private int statementCacheSize = 64;
+    /**
+     * Ограничение одновременно выданных соединений в режиме виртуальных потоков; 0 - размер пула.
+     */
+    private int maxConcurrentConnections = 0;
+}
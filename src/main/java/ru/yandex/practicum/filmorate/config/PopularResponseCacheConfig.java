@@ -0,0 +1,35 @@
+package ru.yandex.practicum.filmorate.config;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import ru.yandex.practicum.filmorate.service.PopularResponseCache;
+
+/**
+ * Кэш готовых ответов /films/popular и его метрики: запросы с попаданием и без, доля попаданий.
+ */
+@Configuration
+@EnableConfigurationProperties(PopularResponseCacheProperties.class)
+public class PopularResponseCacheConfig {
+
+    @Bean
+    public MeterBinder popularResponseCacheMetrics(PopularResponseCache cache) {
+        return registry -> {
+            FunctionCounter.builder("filmorate.popular.cache.requests", cache, PopularResponseCache::getHits)
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("filmorate.popular.cache.requests", cache, PopularResponseCache::getMisses)
+                    .tag("result", "miss")
+                    .register(registry);
+            Gauge.builder("filmorate.popular.cache.hit-rate", cache, PopularResponseCache::getHitRate)
+                    .description("Доля запросов /films/popular, отданных из готовых ответов")
+                    .register(registry);
+            Gauge.builder("filmorate.popular.cache.size", cache, PopularResponseCache::size)
+                    .description("Готовые ответы /films/popular в кэше")
+                    .register(registry);
+        };
+    }
+}
@@ -0,0 +1,38 @@
+package ru.yandex.practicum.filmorate.config;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+/**
+ * Настройки кэша готовых ответов /films/popular (filmorate.popular.response-cache.*).
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "filmorate.popular.response-cache")
+public class PopularResponseCacheProperties {
+    /**
+     * Хранить готовые ответы; без кэша каждый запрос заново строит и сериализует топ.
+     */
+    private boolean enabled = true;
+    /**
+     * Предельный возраст ответа: старше он не отдаётся, даже если рейтинг не менялся. Фоновое
+     * обновление перестраивает запрашиваемые ответы в половину этого срока, чтобы запросам
+     * не приходилось строить их самим.
+     */
+    private Duration maxStaleness = Duration.ofSeconds(1);
+    /**
+     * Число изменений рейтинга, после которого ответ обновляется, не дожидаясь max-staleness.
+     */
+    private int changeThreshold = 100;
+    /**
+     * Хранить рядом сжатую gzip копию ответа для клиентов с Accept-Encoding: gzip.
+     */
+    private boolean gzip = true;
+    /**
+     * Сколько разных наборов параметров (count, genreId, year) хранится; остальные строятся без кэша.
+     */
+    private int maxEntries = 1000;
+}
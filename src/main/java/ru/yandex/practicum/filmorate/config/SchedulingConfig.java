@@ -0,0 +1,12 @@
+package ru.yandex.practicum.filmorate.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Фоновые задачи по расписанию, например применение изменений к индексу лайков.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,91 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Условный GET по сильному ETag из версии ресурса. При совпадении с If-None-Match тело
+ * не строится вовсе.
+ */
+final class ConditionalGet {
+    private static final String GZIP_SUFFIX = "-gz";
+
+    private ConditionalGet() {
+    }
+
+    /**
+     * Версия читается до тела, поэтому тело бывает новее своего ETag, но не старее:
+     * в худшем случае клиент получит его повторно.
+     */
+    static <T> ResponseEntity<T> respond(String ifNoneMatch, String version, Supplier<T> body) {
+        String etag = etag(version);
+        if (matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok().eTag(etag).body(body.get());
+    }
+
+    /**
+     * Для тела, которое несёт версию своей строки (и может прийти из кэша): ETag ответа
+     * строится по версии самого тела, а текущая версия из базы читается только для сравнения
+     * с If-None-Match. Так ETag никогда не оказывается новее отданного тела.
+     */
+    static <T> ResponseEntity<T> respond(String ifNoneMatch, LongSupplier currentVersion, Supplier<T> body,
+                                         ToLongFunction<T> bodyVersion) {
+        if (ifNoneMatch != null) {
+            String current = etag(Long.toString(currentVersion.getAsLong()));
+            if (matches(ifNoneMatch, current)) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(current).build();
+            }
+        }
+        T value = body.get();
+        return ResponseEntity.ok().eTag(etag(Long.toString(bodyVersion.applyAsLong(value)))).body(value);
+    }
+
+    static String etag(String version) {
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * ETag сжатого gzip тела. Разные кодировки - разные представления (RFC 9110, 8.8.3),
+     * поэтому сильный ETag у них должен различаться.
+     */
+    static String gzipEtag(String etag) {
+        return etag.substring(0, etag.length() - 1) + GZIP_SUFFIX + "\"";
+    }
+
+    /**
+     * If-None-Match сравнивается слабо (RFC 9110, 13.1.2): префикс W/ не учитывается.
+     * Совпадением считается и ETag gzip-представления той же версии.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        return match(ifNoneMatch, etag) != null;
+    }
+
+    /**
+     * То же сравнение, но возвращает совпавший ETag (для ответа 304) или null.
+     */
+    static String match(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return null;
+        }
+        String gzipEtag = gzipEtag(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return etag;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals(gzipEtag)) {
+                return tag;
+            }
+        }
+        return null;
+    }
+}
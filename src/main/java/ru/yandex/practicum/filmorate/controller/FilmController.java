@@ -1,29 +1,50 @@
 package ru.yandex.practicum.filmorate.controller;
 
 
+import io.micrometer.core.annotation.Timed;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.config.MetricsConfig;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.CompactFilm;
 import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Page;
+import ru.yandex.practicum.filmorate.service.ExportService;
 import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.PopularResponseCache;
 
 import java.time.LocalDate;
 import java.util.*;
 
+@Timed(value = MetricsConfig.HTTP_TIMER, histogram = true)
 @RestController
 @RequestMapping("/films")
 @Slf4j
 public class FilmController {
 
     public static final LocalDate MIN_RELEASE_DATE = LocalDate.of(1895, 12, 28);
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final String VIEW_FULL = "full";
+    private static final String VIEW_COMPACT = "compact";
     private final FilmService filmService;
+    private final ExportService exportService;
+    private final PopularResponseCache popularResponseCache;
 
     @Autowired
-    public FilmController(FilmService filmService) {
+    public FilmController(FilmService filmService, ExportService exportService,
+                          PopularResponseCache popularResponseCache) {
         this.filmService = filmService;
+        this.exportService = exportService;
+        this.popularResponseCache = popularResponseCache;
     }
 
 
@@ -33,6 +54,12 @@ public class FilmController {
         return filmService.create(film);
     }
 
+    @PostMapping("/batch")
+    public List<Film> createFilms(@Valid @RequestBody List<@Valid Film> films) {
+        log.info("Добавляется пакет фильмов: {}", films.size());
+        return filmService.createAll(films);
+    }
+
     @PutMapping
     public Film updateFilm(@Valid @RequestBody Film film) {
         log.info("Обновлен фильм: {}", film);
@@ -40,14 +67,44 @@ public class FilmController {
     }
 
     @GetMapping
-    public List<Film> getAllFilms() {
-        log.info("Текущее количество фильмов: {} ", filmService.getAll().size());
-        return filmService.getAll();
+    public ResponseEntity<List<?>> getAllFilms(@RequestParam(required = false) String after,
+                                               @RequestParam(defaultValue = "100") int limit,
+                                               @RequestParam(defaultValue = VIEW_FULL) String view) {
+        if (!VIEW_FULL.equals(view) && !VIEW_COMPACT.equals(view)) {
+            throw new ValidationException("Неизвестное представление: " + view);
+        }
+        Page<Film> page = filmService.getPage(after, limit);
+        log.info("Отдано фильмов: {}", page.items().size());
+        return ResponseEntity.ok()
+                .headers(headers -> {
+                    if (page.nextCursor() != null) {
+                        headers.set(NEXT_CURSOR_HEADER, page.nextCursor());
+                    }
+                })
+                .body(VIEW_COMPACT.equals(view)
+                        ? page.items().stream().map(CompactFilm::of).toList()
+                        : page.items());
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportFilms() {
+        log.info("Запрошена выгрузка всех фильмов");
+        StreamingResponseBody body = exportService::writeFilms;
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    @GetMapping("/search")
+    public List<Film> searchFilms(@RequestParam(defaultValue = "") String query,
+                                  @RequestParam(defaultValue = "title,description") List<String> by,
+                                  @RequestParam(defaultValue = "10") int limit) {
+        return filmService.search(query, by, limit);
     }
 
     @GetMapping("/{id}")
-    public Film getFilmById(@PathVariable int id) {
-        return filmService.getById(id);
+    public ResponseEntity<Film> getFilmById(@PathVariable int id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return ConditionalGet.respond(ifNoneMatch, () -> filmService.getVersion(id), () -> filmService.getById(id),
+                Film::getVersion);
     }
 
     @PutMapping("/{id}/like/{userId}")
@@ -61,8 +118,38 @@ public class FilmController {
     }
 
     @GetMapping("/popular")
-    public List<Film> getPopularFilms(@RequestParam(defaultValue = "10") int count) {
-        return filmService.getPopular(count);
+    public ResponseEntity<byte[]> getPopularFilms(@RequestParam(defaultValue = "10") int count,
+                                                  @RequestParam(required = false) Integer genreId,
+                                                  @RequestParam(required = false) Integer year,
+                                                  @RequestHeader(value = HttpHeaders.IF_NONE_MATCH,
+                                                          required = false) String ifNoneMatch,
+                                                  @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING,
+                                                          required = false) String acceptEncoding) {
+        // текущая версия сверяется до кэша: 304 не строит ответ, даже если кэш пуст или устарел
+        if (ifNoneMatch != null) {
+            String matched = ConditionalGet.match(ifNoneMatch,
+                    ConditionalGet.etag(filmService.getPopularVersion(count, genreId)));
+            if (matched != null) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(matched).build();
+            }
+        }
+        PopularResponseCache.Response response = popularResponseCache.get(count, genreId, year);
+        String etag = ConditionalGet.etag(response.version());
+        String matched = ConditionalGet.match(ifNoneMatch, etag);
+        if (matched != null) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(matched).build();
+        }
+        boolean gzipped = response.gzipped() != null && acceptsGzip(acceptEncoding);
+        return ResponseEntity.ok()
+                .eTag(gzipped ? ConditionalGet.gzipEtag(etag) : etag)
+                .contentType(MediaType.APPLICATION_JSON)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING)
+                .headers(headers -> {
+                    if (gzipped) {
+                        headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+                    }
+                })
+                .body(gzipped ? response.gzipped() : response.json());
     }
 
     @PutMapping("/{id}/genres/{genreId}")
@@ -74,4 +161,17 @@ public class FilmController {
     public void removeGenre(@PathVariable int id, @PathVariable int genreId) {
         filmService.removeGenreFromFilm(id, genreId);
     }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
 }
@@ -1,12 +1,17 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import io.micrometer.core.annotation.Timed;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import ru.yandex.practicum.filmorate.config.MetricsConfig;
 import ru.yandex.practicum.filmorate.model.Mpa;
 import ru.yandex.practicum.filmorate.service.MpaService;
 
 import java.util.List;
 
+@Timed(value = MetricsConfig.HTTP_TIMER, histogram = true)
 @RestController
 @RequestMapping("/mpa")
 public class MPAController {
@@ -19,12 +24,14 @@ public class MPAController {
     }
 
     @GetMapping
-    public List<Mpa> getAllMpa() {
-        return mpaService.getAllMpa();
+    public ResponseEntity<List<Mpa>> getAllMpa(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return ConditionalGet.respond(ifNoneMatch, mpaService.getVersion(), mpaService::getAllMpa);
     }
 
     @GetMapping("/{id}")
-    public Mpa getMpaById(@PathVariable int id) {
-        return mpaService.getMpaById(id);
+    public ResponseEntity<Mpa> getMpaById(@PathVariable int id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return ConditionalGet.respond(ifNoneMatch, mpaService.getVersion(), () -> mpaService.getMpaById(id));
     }
 }
@@ -1,23 +1,39 @@
 package ru.yandex.practicum.filmorate.controller;
 
+import io.micrometer.core.annotation.Timed;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import ru.yandex.practicum.filmorate.config.MetricsConfig;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.service.ExportService;
+import ru.yandex.practicum.filmorate.service.FilmService;
 import ru.yandex.practicum.filmorate.service.UserService;
 
 import java.util.*;
 
+@Timed(value = MetricsConfig.HTTP_TIMER, histogram = true)
 @RestController
 @RequestMapping("/users")
 @Slf4j
 public class UserController {
     private final UserService userService;
+    private final FilmService filmService;
+    private final ExportService exportService;
 
     @Autowired
-    public UserController(UserService userService) {
+    public UserController(UserService userService, FilmService filmService, ExportService exportService) {
         this.userService = userService;
+        this.filmService = filmService;
+        this.exportService = exportService;
     }
 
     @PostMapping
@@ -26,6 +42,12 @@ public class UserController {
         return userService.create(user);
     }
 
+    @PostMapping("/batch")
+    public List<User> createUsers(@Valid @RequestBody List<@Valid User> users) {
+        log.info("Добавляется пакет пользователей: {}", users.size());
+        return userService.createAll(users);
+    }
+
     @PutMapping
     public User updateUser(@Valid @RequestBody User user) {
         log.info("Обновлен пользователь: {}", user);
@@ -33,13 +55,30 @@ public class UserController {
     }
 
     @GetMapping
-    public List<User> getAllUsers() {
-        return userService.getAll();
+    public ResponseEntity<List<User>> getAllUsers(@RequestParam(required = false) String after,
+                                                  @RequestParam(defaultValue = "100") int limit) {
+        Page<User> page = userService.getPage(after, limit);
+        return ResponseEntity.ok()
+                .headers(headers -> {
+                    if (page.nextCursor() != null) {
+                        headers.set(FilmController.NEXT_CURSOR_HEADER, page.nextCursor());
+                    }
+                })
+                .body(page.items());
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportUsers() {
+        log.info("Запрошена выгрузка всех пользователей");
+        StreamingResponseBody body = exportService::writeUsers;
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
     @GetMapping("/{id}")
-    public User getUserById(@PathVariable int id) {
-        return userService.getById(id);
+    public ResponseEntity<User> getUserById(@PathVariable int id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return ConditionalGet.respond(ifNoneMatch, () -> userService.getVersion(id), () -> userService.getById(id),
+                User::getVersion);
     }
 
     @PutMapping("/{id}/friends/{friendId}")
@@ -57,6 +96,30 @@ public class UserController {
         return userService.getCommonFriends(id, otherId);
     }
 
+    @GetMapping("/{id}/friends/suggestions")
+    public List<User> getFriendSuggestions(@PathVariable int id, @RequestParam(defaultValue = "10") int limit) {
+        return userService.getFriendSuggestions(id, limit);
+    }
+
+    @GetMapping("/{id}/recommendations")
+    public List<Film> getRecommendations(@PathVariable int id, @RequestParam(defaultValue = "10") int limit) {
+        return filmService.getRecommendations(id, limit);
+    }
+
+    @GetMapping("/{id}/feed")
+    public ResponseEntity<List<Event>> getFeed(@PathVariable int id,
+                                               @RequestParam(required = false) String after,
+                                               @RequestParam(defaultValue = "100") int limit) {
+        Page<Event> page = userService.getFeed(id, after, limit);
+        return ResponseEntity.ok()
+                .headers(headers -> {
+                    if (page.nextCursor() != null) {
+                        headers.set(FilmController.NEXT_CURSOR_HEADER, page.nextCursor());
+                    }
+                })
+                .body(page.items());
+    }
+
     @GetMapping("/{id}/friends")
     public List<User> getFriends(@PathVariable int id) {
         return userService.getFriends(id);
@@ -0,0 +1,19 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Фильм для ?view=compact: вместо объектов рейтинга и жанров только их id,
+ * названия клиент берёт из /mpa и /genres.
+ */
+public record CompactFilm(int id, String name, String description, LocalDate releaseDate, int duration,
+                          Integer mpaId, List<Integer> genreIds) {
+
+    public static CompactFilm of(Film film) {
+        return new CompactFilm(film.getId(), film.getName(), film.getDescription(), film.getReleaseDate(),
+                film.getDuration(),
+                film.getMpa() == null ? null : film.getMpa().getId(),
+                film.getGenres() == null ? List.of() : film.getGenres().stream().map(Genre::getId).toList());
+    }
+}
@@ -0,0 +1,25 @@
+package ru.yandex.practicum.filmorate.model;
+
+import lombok.Data;
+
+/**
+ * Запись ленты событий. userId равен null у событий каталога - добавления фильма.
+ */
+@Data
+public class Event {
+    private int eventId;
+    private long timestamp;
+    private Integer userId;
+    private EventType eventType;
+    private EventOperation operation;
+    private int entityId;
+
+    public static Event of(Integer userId, EventType eventType, EventOperation operation, int entityId) {
+        Event event = new Event();
+        event.setUserId(userId);
+        event.setEventType(eventType);
+        event.setOperation(operation);
+        event.setEntityId(entityId);
+        return event;
+    }
+}
@@ -1,11 +1,13 @@
 package ru.yandex.practicum.filmorate.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.validation.constraints.*;
 import lombok.Data;
 import ru.yandex.practicum.filmorate.validation.ReleaseValidDate;
 
 import java.time.LocalDate;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -30,4 +32,30 @@ public class Film {
 
     private Mpa mpa;
     private Set<Genre> genres = new HashSet<>();
+
+    /**
+     * Версия строки, из которой прочитан фильм; по ней строится ETag ответа.
+     */
+    @JsonIgnore
+    private long version;
+
+    /**
+     * Копия со своими mpa и жанрами, чтобы изменения не доходили до общего объекта из кэша.
+     */
+    public Film copy() {
+        Film copy = new Film();
+        copy.setId(id);
+        copy.setName(name);
+        copy.setDescription(description);
+        copy.setReleaseDate(releaseDate);
+        copy.setDuration(duration);
+        copy.setVersion(version);
+        copy.setMpa(mpa == null ? null : new Mpa(mpa.getId(), mpa.getName()));
+        Set<Genre> genreCopies = new LinkedHashSet<>();
+        if (genres != null) {
+            genres.forEach(genre -> genreCopies.add(new Genre(genre.getId(), genre.getName())));
+        }
+        copy.setGenres(genreCopies);
+        return copy;
+    }
 }
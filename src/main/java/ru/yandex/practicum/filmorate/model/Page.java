@@ -0,0 +1,10 @@
+package ru.yandex.practicum.filmorate.model;
+
+import java.util.List;
+
+/**
+ * Страница выборки при постраничном чтении по ключу.
+ * nextCursor равен null, если страница последняя.
+ */
+public record Page<T>(List<T> items, String nextCursor) {
+}
@@ -27,4 +27,25 @@ public class User {
 
     @JsonIgnore
     private Map<Integer, Boolean> friends = new HashMap<>();
+
+    /**
+     * Версия строки, из которой прочитан пользователь; по ней строится ETag ответа.
+     */
+    @JsonIgnore
+    private long version;
+
+    /**
+     * Копия со своим набором друзей, чтобы изменения не доходили до общего объекта из кэша.
+     */
+    public User copy() {
+        User copy = new User();
+        copy.setId(id);
+        copy.setEmail(email);
+        copy.setLogin(login);
+        copy.setName(name);
+        copy.setBirthday(birthday);
+        copy.setVersion(version);
+        copy.setFriends(friends == null ? new HashMap<>() : new HashMap<>(friends));
+        return copy;
+    }
 }
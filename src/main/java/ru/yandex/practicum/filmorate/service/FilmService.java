@@ -3,155 +3,188 @@ package ru.yandex.practicum.filmorate.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
-import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.Page;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
 import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
-import ru.yandex.practicum.filmorate.storage.film.GenreDbStorage;
-import ru.yandex.practicum.filmorate.storage.film.MpaDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.ReferenceDataCache;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 public class FilmService {
+    private static final int MAX_BATCH_SIZE = 10_000;
+    private static final int MAX_RECOMMENDATIONS = 100;
+    private static final int MAX_SEARCH_RESULTS = 100;
+
     private final FilmStorage filmStorage;
     private final UserStorage userStorage;
-    private final GenreDbStorage genreStorage;
-    private final MpaDbStorage mpaStorage;
+    private final ReferenceDataCache referenceDataCache;
 
     @Autowired
     public FilmService(@Qualifier("filmDbStorage") FilmStorage filmStorage,
                        @Qualifier("userDbStorage") UserStorage userStorage,
-                       GenreDbStorage genreStorage,
-                       MpaDbStorage mpaStorage) {
+                       ReferenceDataCache referenceDataCache) {
         this.filmStorage = filmStorage;
         this.userStorage = userStorage;
-        this.genreStorage = genreStorage;
-        this.mpaStorage = mpaStorage;
+        this.referenceDataCache = referenceDataCache;
     }
 
     public Film create(Film film) {
-        validateMpa(film.getMpa());
-        validateGenre(film.getGenres());
-        try {
-            if (film.getMpa() != null) {
-                Mpa fullMpa = mpaStorage.getById(film.getMpa().getId());
-                film.setMpa(fullMpa);
-            }
+        resolveReferences(film);
+        return filmStorage.create(film);
+    }
 
-            if (film.getGenres() != null && !film.getGenres().isEmpty()) {
-                Set<Genre> fullGenres = film.getGenres().stream()
-                        .map(genre -> genreStorage.getById(genre.getId()))
-                        .collect(Collectors.toCollection(() -> new TreeSet<>(Comparator.comparingInt(Genre::getId))));
-                film.setGenres(fullGenres);
-            } else {
-                film.setGenres(new TreeSet<>());
-            }
-            return filmStorage.create(film);
-        } catch (EmptyResultDataAccessException e) {
-            throw new NotFoundException("MPA рейтинг или жанр не найден");
-        }
+    public List<Film> createAll(List<Film> films) {
+        validateBatchSize(films.size());
+        films.forEach(this::resolveReferences);
+        return filmStorage.createAll(films);
     }
 
     public Film update(Film film) {
-        validateMpa(film.getMpa());
-        validateGenre(film.getGenres());
-
-        try {
-            filmStorage.getById(film.getId());
-        } catch (EmptyResultDataAccessException e) {
-            throw new NotFoundException("Фильм с id " + film.getId() + " не найден");
-        }
-
-        if (film.getMpa() != null) {
-            Mpa fullMpa = mpaStorage.getById(film.getMpa().getId());
-            film.setMpa(fullMpa);
-        }
-
-        if (film.getGenres() != null && !film.getGenres().isEmpty()) {
-            Set<Genre> fullGenres = film.getGenres().stream()
-                    .map(genre -> genreStorage.getById(genre.getId()))
-                    .collect(Collectors.toCollection(() -> new TreeSet<>(Comparator.comparingInt(Genre::getId))));
-            film.setGenres(fullGenres);
-        } else {
-            film.setGenres(new TreeSet<>());
-        }
+        resolveReferences(film);
         return filmStorage.update(film);
     }
 
-    public List<Film> getAll() {
-        return filmStorage.getAll();
+    public Page<Film> getPage(String cursor, int limit) {
+        PageCursor.validateLimit(limit);
+        List<Film> films = filmStorage.getPage(PageCursor.decode(cursor), limit + 1);
+        return PageCursor.toPage(films, limit, Film::getId);
     }
 
     public Film getById(int id) {
         try {
-            return filmStorage.getById(id);
+            return filmStorage.getById(id).copy();
         } catch (EmptyResultDataAccessException e) {
             throw new NotFoundException("Фильм с id " + id + " не найден");
         }
     }
 
-    public void addLike(int filmId, int userId) {
+    public long getVersion(int id) {
         try {
-            filmStorage.getById(filmId);
-            userStorage.getById(userId);
+            return filmStorage.getVersion(id);
         } catch (EmptyResultDataAccessException e) {
+            throw new NotFoundException("Фильм с id " + id + " не найден");
+        }
+    }
+
+    public String getCatalogVersion() {
+        return filmStorage.getCatalogVersion();
+    }
+
+    public void addLike(int filmId, int userId) {
+        try {
+            filmStorage.addLike(filmId, userId);
+        } catch (DataIntegrityViolationException e) {
             throw new NotFoundException("Ресурс не найден");
         }
-        filmStorage.addLike(filmId, userId);
     }
 
     public void removeLike(int filmId, int userId) {
-        try {
-            filmStorage.getById(filmId);
-            userStorage.getById(userId);
-        } catch (EmptyResultDataAccessException e) {
+        // существование фильма и пользователя проверяем, только если лайка не было
+        if (!filmStorage.removeLike(filmId, userId)
+                && !(filmStorage.exists(filmId) && userStorage.exists(userId))) {
             throw new NotFoundException("Ресурс не найден");
         }
-        filmStorage.removeLike(filmId, userId);
     }
 
-    public List<Film> getPopular(int count) {
-        return filmStorage.getPopular(count);
+    public List<Film> getPopular(int count, Integer genreId, Integer year) {
+        validatePopular(count, genreId);
+        return filmStorage.getPopular(count, genreId, year);
+    }
+
+    /**
+     * Версия каталога для ETag /films/popular. Параметры проверяются так же, как в getPopular,
+     * чтобы неверный запрос получил 400, а не 304.
+     */
+    public String getPopularVersion(int count, Integer genreId) {
+        validatePopular(count, genreId);
+        return filmStorage.getCatalogVersion();
+    }
+
+    private void validatePopular(int count, Integer genreId) {
+        if (count < 1) {
+            throw new ValidationException("Количество фильмов должно быть положительным");
+        }
+        if (genreId != null) {
+            referenceDataCache.getGenre(genreId);
+        }
+    }
+
+    public List<Film> getRecommendations(int userId, int limit) {
+        if (limit < 1 || limit > MAX_RECOMMENDATIONS) {
+            throw new ValidationException("Количество рекомендаций должно быть от 1 до " + MAX_RECOMMENDATIONS);
+        }
+        if (!userStorage.exists(userId)) {
+            throw new NotFoundException("Пользователь с id " + userId + " не найден");
+        }
+        return filmStorage.getRecommendations(userId, limit);
+    }
+
+    public List<Film> search(String query, List<String> by, int limit) {
+        if (limit < 1 || limit > MAX_SEARCH_RESULTS) {
+            throw new ValidationException("Количество результатов должно быть от 1 до " + MAX_SEARCH_RESULTS);
+        }
+        long terms = FilmSearchIndex.tokenize(query).stream().distinct().count();
+        if (terms == 0) {
+            throw new ValidationException("Поисковый запрос должен содержать хотя бы одно слово");
+        }
+        if (terms > FilmSearchIndex.MAX_QUERY_TERMS) {
+            throw new ValidationException("Поисковый запрос может содержать не больше "
+                    + FilmSearchIndex.MAX_QUERY_TERMS + " разных слов");
+        }
+
+        Set<FilmSearchIndex.Field> fields = EnumSet.noneOf(FilmSearchIndex.Field.class);
+        for (String field : by) {
+            switch (field.trim().toLowerCase(Locale.ROOT)) {
+                case "title" -> fields.add(FilmSearchIndex.Field.TITLE);
+                case "description" -> fields.add(FilmSearchIndex.Field.DESCRIPTION);
+                default -> throw new ValidationException("Неизвестное поле поиска: " + field);
+            }
+        }
+        if (fields.isEmpty()) {
+            throw new ValidationException("Не указаны поля поиска");
+        }
+        return filmStorage.search(query, fields, limit);
     }
 
     public void addGenreToFilm(int filmId, int genreId) {
-        Film film = filmStorage.getById(filmId);
-        Genre genre = genreStorage.getById(genreId);
-        film.getGenres().add(genre);
-        filmStorage.update(film);
+        referenceDataCache.getGenre(genreId);
+        try {
+            filmStorage.addGenre(filmId, genreId);
+        } catch (DataIntegrityViolationException e) {
+            throw new NotFoundException("Фильм с id " + filmId + " не найден");
+        }
     }
 
     public void removeGenreFromFilm(int filmId, int genreId) {
-        Film film = filmStorage.getById(filmId);
-        film.getGenres().removeIf(g -> g.getId() == genreId);
-        filmStorage.update(film);
+        if (!filmStorage.removeGenre(filmId, genreId) && !filmStorage.exists(filmId)) {
+            throw new NotFoundException("Фильм с id " + filmId + " не найден");
+        }
     }
 
-    private void validateMpa(Mpa mpa) {
-        if (mpa != null) {
-            try {
-                mpaStorage.getById(mpa.getId());
-            } catch (EmptyResultDataAccessException e) {
-                throw new NotFoundException("Рейтинг MPA с id " + mpa.getId() + " не найден");
-            }
+    private void validateBatchSize(int size) {
+        if (size < 1 || size > MAX_BATCH_SIZE) {
+            throw new ValidationException("Размер пакета должен быть от 1 до " + MAX_BATCH_SIZE);
         }
     }
 
-    private void validateGenre(Set<Genre> genres) {
-        if (genres != null) {
-            for (Genre genre : genres) {
-                try {
-                    genreStorage.getById(genre.getId());
-                } catch (EmptyResultDataAccessException e) {
-                    throw new NotFoundException("Жанр с id " + genre.getId() + " не найден");
-                }
-            }
+    private void resolveReferences(Film film) {
+        if (film.getMpa() != null) {
+            film.setMpa(referenceDataCache.getMpa(film.getMpa().getId()));
+        }
+
+        Set<Genre> fullGenres = new TreeSet<>(Comparator.comparingInt(Genre::getId));
+        if (film.getGenres() != null) {
+            film.getGenres().forEach(genre -> fullGenres.add(referenceDataCache.getGenre(genre.getId())));
         }
+        film.setGenres(fullGenres);
     }
 }
@@ -4,24 +4,28 @@ package ru.yandex.practicum.filmorate.service;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.model.Genre;
-import ru.yandex.practicum.filmorate.storage.film.GenreDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.ReferenceDataCache;
 
 import java.util.List;
 
 @Service
 public class GenreService {
-    private final GenreDbStorage genreStorage;
+    private final ReferenceDataCache referenceDataCache;
 
     @Autowired
-    public GenreService(GenreDbStorage genreStorage) {
-        this.genreStorage = genreStorage;
+    public GenreService(ReferenceDataCache referenceDataCache) {
+        this.referenceDataCache = referenceDataCache;
+    }
+
+    public String getVersion() {
+        return referenceDataCache.getVersion();
     }
 
     public List<Genre> getAllGenres() {
-        return genreStorage.getAll();
+        return referenceDataCache.getAllGenres();
     }
 
     public Genre getGenreById(int id) {
-        return genreStorage.getById(id);
+        return referenceDataCache.getGenre(id);
     }
-}
\ No newline at end of file
+}
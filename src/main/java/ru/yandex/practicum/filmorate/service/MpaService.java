@@ -2,30 +2,29 @@ package ru.yandex.practicum.filmorate.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Mpa;
-import ru.yandex.practicum.filmorate.storage.film.MpaDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.ReferenceDataCache;
 
 import java.util.List;
 
 @Service
 public class MpaService {
-    private final MpaDbStorage mpaStorage;
+    private final ReferenceDataCache referenceDataCache;
 
     @Autowired
-    public MpaService(MpaDbStorage mpaStorage) {
-        this.mpaStorage = mpaStorage;
+    public MpaService(ReferenceDataCache referenceDataCache) {
+        this.referenceDataCache = referenceDataCache;
+    }
+
+    public String getVersion() {
+        return referenceDataCache.getVersion();
     }
 
     public List<Mpa> getAllMpa() {
-        return mpaStorage.getAll();
+        return referenceDataCache.getAllMpa();
     }
 
     public Mpa getMpaById(int id) {
-        Mpa mpa = mpaStorage.getById(id);
-        if (mpa == null) {
-            throw new NotFoundException("MPA рейтинг с id " + id + " не найден");
-        }
-        return mpa;
+        return referenceDataCache.getMpa(id);
     }
 }
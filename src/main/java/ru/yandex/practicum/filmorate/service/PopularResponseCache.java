@@ -0,0 +1,218 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.config.PopularResponseCacheProperties;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.storage.film.PopularityIndex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Готовые ответы /films/popular: топ, уже сериализованный в JSON (UTF-8) и, если нужно, сжатый gzip.
+ * Ответ строится при первом запросе с данным набором параметров, а дальше отдаётся без обращения
+ * к рейтингу, базе и Jackson. Фоновая задача перестраивает ответ, когда рейтинг изменился
+ * на change-threshold изменений или когда ответ старше половины max-staleness. Ответ старше
+ * max-staleness не отдаётся никогда, даже если счётчик изменений не сдвинулся: его перестраивает
+ * сам запрос. Ответ, который после построения никто не запрашивал, вместо обновления удаляется.
+ * Ответы с count больше MAX_CACHED_COUNT не кэшируются: они строятся при каждом запросе.
+ * Один ответ строит один поток, остальные запросы с тем же ключом ждут его результата;
+ * база, Jackson и gzip работают вне блокировок таблицы ответов.
+ */
+@Slf4j
+@Component
+public class PopularResponseCache {
+    // ответы меньше этого сжатие почти не уменьшает
+    private static final int GZIP_MIN_BYTES = 1024;
+    // count не ограничен сверху, поэтому кэшируются только обычные размеры топа
+    private static final int MAX_CACHED_COUNT = 100;
+
+    private final FilmService filmService;
+    private final PopularityIndex popularityIndex;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final long maxStalenessNanos;
+    private final int changeThreshold;
+    private final boolean gzip;
+    private final int maxEntries;
+
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Key, CompletableFuture<Entry>> building = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Autowired
+    public PopularResponseCache(FilmService filmService, PopularityIndex popularityIndex, ObjectMapper objectMapper,
+                                PopularResponseCacheProperties properties) {
+        this.filmService = filmService;
+        this.popularityIndex = popularityIndex;
+        this.objectMapper = objectMapper;
+        this.enabled = properties.isEnabled();
+        this.maxStalenessNanos = properties.getMaxStaleness().toNanos();
+        this.changeThreshold = properties.getChangeThreshold();
+        this.gzip = properties.isGzip();
+        this.maxEntries = properties.getMaxEntries();
+    }
+
+    public Response get(int count, Integer genreId, Integer year) {
+        Key key = new Key(count, genreId, year);
+        Entry entry = enabled ? entries.get(key) : null;
+        if (entry != null && !isExpired(entry, System.nanoTime())) {
+            entry.read = true;
+            hits.increment();
+            return entry.response;
+        }
+
+        misses.increment();
+        if (!enabled || count > MAX_CACHED_COUNT || (entry == null && entries.size() >= maxEntries)) {
+            return build(key).response;
+        }
+        Entry current = load(key);
+        current.read = true;
+        return current.response;
+    }
+
+    /**
+     * Перестраивает устаревшие ответы и удаляет те, что не запрашивались с прошлого построения.
+     */
+    @Scheduled(fixedDelayString = "${filmorate.popular.response-cache.refresh-delay:100}")
+    public void refresh() {
+        entries.forEach((key, entry) -> {
+            if (!needsRefresh(entry, System.nanoTime())) {
+                return;
+            }
+            if (!entry.read) {
+                entries.remove(key, entry);
+                return;
+            }
+            try {
+                load(key);
+            } catch (RuntimeException e) {
+                log.warn("Не удалось обновить ответ /films/popular для {}", key, e);
+                entries.remove(key, entry);
+            }
+        });
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Строит ответ и кладёт его в таблицу. Если ответ с этим ключом уже строится, ждёт его.
+     */
+    private Entry load(Key key) {
+        CompletableFuture<Entry> own = new CompletableFuture<>();
+        CompletableFuture<Entry> running = building.putIfAbsent(key, own);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            Entry entry = build(key);
+            entries.put(key, entry);
+            own.complete(entry);
+            return entry;
+        } catch (RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            building.remove(key, own);
+        }
+    }
+
+    private boolean needsRefresh(Entry entry, long now) {
+        long changes = popularityIndex.getChangeCount() - entry.changeCount;
+        return (changes > 0 && changes >= changeThreshold) || now - entry.builtAt >= maxStalenessNanos / 2;
+    }
+
+    /**
+     * Срок жизни ответа не зависит от счётчика изменений: изменение, которое счётчик не увидел,
+     * всё равно попадёт в ответ не позже чем через max-staleness.
+     */
+    private boolean isExpired(Entry entry, long now) {
+        return now - entry.builtAt >= maxStalenessNanos;
+    }
+
+    /**
+     * Время, версия и счётчик изменений читаются до топа, поэтому ответ бывает новее своей версии
+     * и возраста, но не старее.
+     */
+    private Entry build(Key key) {
+        long builtAt = System.nanoTime();
+        long changeCount = popularityIndex.getChangeCount();
+        String version = filmService.getCatalogVersion();
+        List<Film> films = filmService.getPopular(key.count(), key.genreId(), key.year());
+
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(films);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Не удалось сериализовать популярные фильмы", e);
+        }
+        byte[] gzipped = gzip && json.length >= GZIP_MIN_BYTES ? gzip(json) : null;
+        return new Entry(new Response(json, gzipped, version), changeCount, builtAt);
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4);
+        try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+            gzipOut.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Готовый ответ: JSON в UTF-8, его gzip-копия (null, если сжатие выключено или ответ мал)
+     * и версия каталога, по которой он построен.
+     */
+    public record Response(byte[] json, byte[] gzipped, String version) {
+    }
+
+    private record Key(int count, Integer genreId, Integer year) {
+    }
+
+    private static final class Entry {
+        private final Response response;
+        private final long changeCount;
+        private final long builtAt;
+        private volatile boolean read;
+
+        Entry(Response response, long changeCount, long builtAt) {
+            this.response = response;
+            this.changeCount = changeCount;
+            this.builtAt = builtAt;
+        }
+    }
+}
@@ -2,24 +2,31 @@ package ru.yandex.practicum.filmorate.service;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
-import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.Page;
 import ru.yandex.practicum.filmorate.model.User;
-import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+import ru.yandex.practicum.filmorate.storage.event.EventStorage;
 import ru.yandex.practicum.filmorate.storage.user.UserStorage;
 
 import java.util.List;
 
 @Service
 public class UserService {
+    private static final int MAX_BATCH_SIZE = 10_000;
+    private static final int MAX_SUGGESTIONS = 100;
+
     private final UserStorage userStorage;
+    private final EventStorage eventStorage;
 
     @Autowired
-    public UserService(@Qualifier("userDbStorage") UserStorage userStorage,
-                       JdbcTemplate jdbcTemplate) {
+    public UserService(@Qualifier("userDbStorage") UserStorage userStorage, EventStorage eventStorage) {
         this.userStorage = userStorage;
+        this.eventStorage = eventStorage;
     }
 
     public User create(User user) {
@@ -27,65 +34,92 @@ public class UserService {
         return userStorage.create(user);
     }
 
+    public List<User> createAll(List<User> users) {
+        validateBatchSize(users.size());
+        users.forEach(this::validateName);
+        return userStorage.createAll(users);
+    }
+
     public User update(User user) {
-        try {
-            userStorage.getById(user.getId());
-        } catch (EmptyResultDataAccessException e) {
-            throw new NotFoundException("Пользователь с id " + user.getId() + " не найден");
-        }
         validateName(user);
         return userStorage.update(user);
     }
 
-    public List<User> getAll() {
-        return userStorage.getAll();
+    public Page<User> getPage(String cursor, int limit) {
+        PageCursor.validateLimit(limit);
+        List<User> users = userStorage.getPage(PageCursor.decode(cursor), limit + 1);
+        return PageCursor.toPage(users, limit, User::getId);
     }
 
     public User getById(int id) {
         try {
-            return userStorage.getById(id);
+            return userStorage.getById(id).copy();
         } catch (EmptyResultDataAccessException e) {
             throw new NotFoundException("Пользователь с id " + id + " не найден");
         }
     }
 
+    public long getVersion(int id) {
+        return userStorage.getVersion(id);
+    }
+
     public void addFriend(int userId, int friendId) {
         try {
-            userStorage.getById(userId);
-            userStorage.getById(friendId);
-        } catch (EmptyResultDataAccessException e) {
+            userStorage.addFriend(userId, friendId);
+        } catch (DataIntegrityViolationException e) {
             throw new NotFoundException("Пользователь не найден");
         }
-
-        ((UserDbStorage) userStorage).addFriend(userId, friendId);
     }
 
     public void removeFriend(int userId, int friendId) {
-        try {
-            userStorage.getById(userId);
-            userStorage.getById(friendId);
-        } catch (EmptyResultDataAccessException e) {
+        if (!userStorage.removeFriend(userId, friendId) && !userStorage.existAll(userId, friendId)) {
             throw new NotFoundException("Пользователь не найден");
         }
-        userStorage.removeFriend(userId, friendId);
     }
 
     public List<User> getCommonFriends(int userId, int otherId) {
-        try {
-            userStorage.getById(userId);
-            userStorage.getById(otherId);
-        } catch (EmptyResultDataAccessException e) {
+        if (!userStorage.existAll(userId, otherId)) {
             throw new NotFoundException("Пользователь не найден");
         }
-
-        return ((UserDbStorage) userStorage).getCommonFriends(userId, otherId);
+        return userStorage.getCommonFriends(userId, otherId);
     }
 
     public List<User> getFriends(int userId) {
-        userStorage.getById(userId);
+        if (!userStorage.exists(userId)) {
+            throw new NotFoundException("Пользователь с id " + userId + " не найден");
+        }
         return userStorage.getFriends(userId);
     }
 
+    public List<User> getFriendSuggestions(int userId, int limit) {
+        if (limit < 1 || limit > MAX_SUGGESTIONS) {
+            throw new ValidationException("Количество рекомендаций должно быть от 1 до " + MAX_SUGGESTIONS);
+        }
+        if (!userStorage.exists(userId)) {
+            throw new NotFoundException("Пользователь с id " + userId + " не найден");
+        }
+        return userStorage.getFriendSuggestions(userId, limit);
+    }
+
+    /**
+     * Лента событий друзей и каталога от новых к старым. Курсор - id последнего отданного события.
+     */
+    public Page<Event> getFeed(int userId, String cursor, int limit) {
+        PageCursor.validateLimit(limit);
+        int beforeEventId = cursor == null || cursor.isBlank() ? Integer.MAX_VALUE : PageCursor.decode(cursor);
+        if (!userStorage.exists(userId)) {
+            throw new NotFoundException("Пользователь с id " + userId + " не найден");
+        }
+        List<Event> events = eventStorage.getFeed(userStorage.getFriendIds(userId), beforeEventId, limit + 1);
+        return PageCursor.toPage(events, limit, Event::getEventId);
+    }
+
+    private void validateBatchSize(int size) {
+        if (size < 1 || size > MAX_BATCH_SIZE) {
+            throw new ValidationException("Размер пакета должен быть от 1 до " + MAX_BATCH_SIZE);
+        }
+    }
+
     private void validateName(User user) {
         if (user.getName() == null || user.getName().isBlank()) {
             user.setName(user.getLogin());
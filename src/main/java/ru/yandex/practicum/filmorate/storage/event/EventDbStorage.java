@@ -0,0 +1,222 @@
+package ru.yandex.practicum.filmorate.storage.event;
+
+import io.micrometer.core.annotation.Timed;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+import ru.yandex.practicum.filmorate.config.MetricsConfig;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.EventOperation;
+import ru.yandex.practicum.filmorate.model.EventType;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Журнал событий в таблице events, строки в которую только добавляются.
+ * Лента собирается при чтении: поток событий каждого друга и поток событий каталога
+ * читаются по индексу (user_id, event_id DESC) от новых к старым и сливаются кучей по event_id.
+ */
+@Slf4j
+@Timed(value = MetricsConfig.DB_TIMER, histogram = true)
+@Repository
+public class EventDbStorage implements EventStorage {
+    private static final int BATCH_SIZE = 1000;
+    private static final int INITIAL_BLOCK_SIZE = 8;
+    // ключ потока событий каталога: id пользователей начинаются с 1
+    private static final int CATALOG_STREAM = 0;
+    private static final String INSERT_EVENT_SQL = "INSERT INTO events (user_id, event_type, operation, entity_id) " +
+            "VALUES (?, ?, ?, ?)";
+    private static final String SELECT_EVENTS_SQL = "SELECT event_id, created_at, user_id, event_type, operation, " +
+            "entity_id FROM events ";
+    // с user_id в ORDER BY H2 читает индекс по порядку и останавливается на LIMIT, а не сортирует весь поток
+    private static final String USER_STREAM_SQL = SELECT_EVENTS_SQL +
+            "WHERE user_id = ? AND event_id <= ? ORDER BY user_id, event_id DESC LIMIT ?";
+    private static final String CATALOG_STREAM_SQL = SELECT_EVENTS_SQL +
+            "WHERE user_id IS NULL AND event_id <= ? ORDER BY user_id, event_id DESC LIMIT ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    // id последнего события каждого потока; потоки без событий в ленте не участвуют
+    private final Map<Integer, Integer> lastEventByStream = new ConcurrentHashMap<>();
+
+    public EventDbStorage(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    private final RowMapper<Event> eventRowMapper = (rs, rowNum) -> {
+        Event event = new Event();
+        event.setEventId(rs.getInt("event_id"));
+        event.setTimestamp(rs.getTimestamp("created_at").getTime());
+        event.setUserId(rs.getObject("user_id", Integer.class));
+        event.setEventType(EventType.valueOf(rs.getString("event_type")));
+        event.setOperation(EventOperation.valueOf(rs.getString("operation")));
+        event.setEntityId(rs.getInt("entity_id"));
+        return event;
+    };
+
+    @Override
+    public void add(Event event) {
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement stmt = connection.prepareStatement(INSERT_EVENT_SQL, new String[]{"event_id"});
+            setEventParameters(stmt, event);
+            return stmt;
+        }, keyHolder);
+        event.setEventId(Objects.requireNonNull(keyHolder.getKey()).intValue());
+        published(event);
+    }
+
+    @Override
+    public void addAll(List<Event> events) {
+        for (int from = 0; from < events.size(); from += BATCH_SIZE) {
+            List<Event> chunk = events.subList(from, Math.min(from + BATCH_SIZE, events.size()));
+            KeyHolder keyHolder = new GeneratedKeyHolder();
+
+            jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(INSERT_EVENT_SQL,
+                    new String[]{"event_id"}), new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement stmt, int i) throws SQLException {
+                    setEventParameters(stmt, chunk.get(i));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return chunk.size();
+                }
+            }, keyHolder);
+
+            List<Map<String, Object>> keys = keyHolder.getKeyList();
+            for (int i = 0; i < chunk.size(); i++) {
+                chunk.get(i).setEventId(((Number) keys.get(i).values().iterator().next()).intValue());
+                published(chunk.get(i));
+            }
+        }
+    }
+
+    /**
+     * Слияние потоков кучей по id очередного события. Пока поток не прочитан, его ключ в куче -
+     * верхняя граница id его событий, и поток читается, только когда эта граница оказывается
+     * наверху кучи. Блок каждого следующего чтения потока вдвое больше предыдущего, но не больше
+     * остатка страницы, поэтому страница читает O(page) строк и занимает O(page * log друзей)
+     * операций с кучей, сколько бы событий ни было в таблице.
+     */
+    @Override
+    public List<Event> getFeed(int[] authorIds, int beforeEventId, int limit) {
+        PriorityQueue<EventStream> heap = new PriorityQueue<>(authorIds.length + 1,
+                Comparator.comparingInt(EventStream::head).reversed()
+                        .thenComparing(EventStream::needsFetch));
+        offer(heap, CATALOG_STREAM, beforeEventId);
+        for (int authorId : authorIds) {
+            offer(heap, authorId, beforeEventId);
+        }
+
+        List<Event> feed = new ArrayList<>(limit);
+        while (feed.size() < limit && !heap.isEmpty()) {
+            EventStream stream = heap.poll();
+            if (stream.needsFetch()) {
+                if (fetch(stream, limit - feed.size())) {
+                    heap.add(stream);
+                }
+                continue;
+            }
+            feed.add(stream.buffer.poll());
+            if (!stream.buffer.isEmpty() || !stream.exhausted) {
+                heap.add(stream);
+            }
+        }
+        return feed;
+    }
+
+    /**
+     * Запоминает последнее событие каждого пользователя и каталога.
+     */
+    @PostConstruct
+    public void rebuildLastEvents() {
+        lastEventByStream.clear();
+        jdbcTemplate.query("SELECT user_id, MAX(event_id) AS last_event_id FROM events GROUP BY user_id",
+                (RowCallbackHandler) rs -> {
+                    Integer userId = rs.getObject("user_id", Integer.class);
+                    lastEventByStream.put(userId == null ? CATALOG_STREAM : userId, rs.getInt("last_event_id"));
+                });
+        log.info("Лента событий: известны последние события {} потоков", lastEventByStream.size());
+    }
+
+    private void offer(PriorityQueue<EventStream> heap, int streamId, int beforeEventId) {
+        Integer lastEventId = lastEventByStream.get(streamId);
+        if (lastEventId != null) {
+            heap.add(new EventStream(streamId, Math.min(lastEventId, beforeEventId - 1)));
+        }
+    }
+
+    private boolean fetch(EventStream stream, int remaining) {
+        int blockSize = Math.min(stream.blockSize, remaining);
+        List<Event> events = stream.streamId == CATALOG_STREAM
+                ? jdbcTemplate.query(CATALOG_STREAM_SQL, eventRowMapper, stream.bound, blockSize)
+                : jdbcTemplate.query(USER_STREAM_SQL, eventRowMapper, stream.streamId, stream.bound, blockSize);
+        stream.exhausted = events.size() < blockSize;
+        stream.blockSize *= 2;
+        if (events.isEmpty()) {
+            return false;
+        }
+        stream.buffer.addAll(events);
+        stream.bound = events.getLast().getEventId() - 1;
+        return true;
+    }
+
+    private void published(Event event) {
+        int streamId = event.getUserId() == null ? CATALOG_STREAM : event.getUserId();
+        int eventId = event.getEventId();
+        AfterCommit.run(() -> lastEventByStream.merge(streamId, eventId, Math::max));
+    }
+
+    private static void setEventParameters(PreparedStatement stmt, Event event) throws SQLException {
+        if (event.getUserId() == null) {
+            stmt.setNull(1, Types.INTEGER);
+        } else {
+            stmt.setInt(1, event.getUserId());
+        }
+        stmt.setString(2, event.getEventType().name());
+        stmt.setString(3, event.getOperation().name());
+        stmt.setInt(4, event.getEntityId());
+    }
+
+    /**
+     * Прочитанная часть потока событий одного автора и граница id ещё не прочитанных.
+     */
+    private static final class EventStream {
+        private final int streamId;
+        private final ArrayDeque<Event> buffer = new ArrayDeque<>();
+        private int bound;
+        private int blockSize = INITIAL_BLOCK_SIZE;
+        private boolean exhausted;
+
+        EventStream(int streamId, int bound) {
+            this.streamId = streamId;
+            this.bound = bound;
+        }
+
+        int head() {
+            return buffer.isEmpty() ? bound : buffer.peek().getEventId();
+        }
+
+        boolean needsFetch() {
+            return buffer.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package ru.yandex.practicum.filmorate.storage.event;
+
+import ru.yandex.practicum.filmorate.model.Event;
+
+import java.util.List;
+
+public interface EventStorage {
+
+    void add(Event event);
+
+    void addAll(List<Event> events);
+
+    /**
+     * События пользователей authorIds и события каталога с id меньше beforeEventId, от новых к старым.
+     */
+    List<Event> getFeed(int[] authorIds, int beforeEventId, int limit);
+}
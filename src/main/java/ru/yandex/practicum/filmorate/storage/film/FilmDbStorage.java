@@ -1,31 +1,77 @@
 package ru.yandex.practicum.filmorate.storage.film;
 
+import io.micrometer.core.annotation.Timed;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.config.CacheConfig;
+import ru.yandex.practicum.filmorate.config.MetricsConfig;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.EventOperation;
+import ru.yandex.practicum.filmorate.model.EventType;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+import ru.yandex.practicum.filmorate.storage.event.EventStorage;
 
 import java.sql.Date;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.time.LocalDate;
 import java.util.*;
+import java.util.function.Consumer;
 
+@Slf4j
+@Timed(value = MetricsConfig.DB_TIMER, histogram = true)
 @Repository
 public class FilmDbStorage implements FilmStorage {
+    private static final int IN_LIST_BATCH_SIZE = 500;
+    private static final int BATCH_SIZE = 1000;
+    private static final int EXPORT_FETCH_SIZE = 1000;
 
     private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final PopularityIndex popularityIndex;
+    private final LikeIndex likeIndex;
+    private final FilmSearchIndex searchIndex;
+    private final EventStorage eventStorage;
+    private final LikeWriteBehind likeWriteBehind;
 
     @Autowired
-    public FilmDbStorage(JdbcTemplate jdbcTemplate) {
+    public FilmDbStorage(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                         PopularityIndex popularityIndex, LikeIndex likeIndex, FilmSearchIndex searchIndex,
+                         EventStorage eventStorage, Optional<LikeWriteBehind> likeWriteBehind) {
         this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.popularityIndex = popularityIndex;
+        this.likeIndex = likeIndex;
+        this.searchIndex = searchIndex;
+        this.eventStorage = eventStorage;
+        this.likeWriteBehind = likeWriteBehind.orElse(null);
     }
 
+    private static final String INSERT_FILM_SQL = "INSERT INTO films " +
+            "(name, description, release_date, duration, mpa_id) VALUES (?, ?, ?, ?, ?)";
+
     private final RowMapper<Film> filmRowMapper = (rs, rowNum) -> {
         Film film = new Film();
         film.setId(rs.getInt("film_id"));
@@ -33,6 +79,7 @@ public class FilmDbStorage implements FilmStorage {
         film.setDescription(rs.getString("description"));
         film.setReleaseDate(rs.getDate("release_date").toLocalDate());
         film.setDuration(rs.getInt("duration"));
+        film.setVersion(rs.getLong("version"));
 
         Mpa mpa = new Mpa();
         mpa.setId(rs.getInt("mpa_rating_id"));
@@ -45,139 +92,516 @@ public class FilmDbStorage implements FilmStorage {
     };
 
     @Override
+    @Transactional
     public Film create(Film film) {
-        String sql = "INSERT INTO films (name, description, release_date, duration, mpa_id) " +
-                "VALUES (?, ?, ?, ?, ?)";
         KeyHolder keyHolder = new GeneratedKeyHolder();
 
         jdbcTemplate.update(connection -> {
-            PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-            stmt.setString(1, film.getName());
-            stmt.setString(2, film.getDescription());
-            stmt.setDate(3, Date.valueOf(film.getReleaseDate()));
-            stmt.setInt(4, film.getDuration());
-            stmt.setInt(5, film.getMpa().getId());
-            if (film.getMpa() != null) {
-                stmt.setInt(5, film.getMpa().getId());
-            } else {
-                stmt.setNull(5, Types.INTEGER);
-            }
+            PreparedStatement stmt = connection.prepareStatement(INSERT_FILM_SQL, Statement.RETURN_GENERATED_KEYS);
+            setFilmParameters(stmt, film);
             return stmt;
         }, keyHolder);
 
         film.setId(Objects.requireNonNull(keyHolder.getKey()).intValue());
-        updateGenres(film);
+        insertGenres(List.of(film));
+        PopularityIndex.FilmStats stats = new PopularityIndex.FilmStats(film.getId(), 0, releaseYear(film),
+                genreIds(film));
+        FilmSearchIndex.FilmText text = new FilmSearchIndex.FilmText(film.getId(), film.getName(),
+                film.getDescription());
+        AfterCommit.run(() -> {
+            popularityIndex.put(stats.filmId(), 0, stats.year(), stats.genreIds());
+            searchIndex.put(text.filmId(), text.title(), text.description());
+        });
+        eventStorage.add(Event.of(null, EventType.FILM, EventOperation.ADD, film.getId()));
         return film;
     }
 
+    /**
+     * Сохраняет фильмы JDBC-пакетами по BATCH_SIZE строк в одной транзакции
+     * и проставляет им сгенерированные id в порядке следования.
+     */
+    @Override
+    @Transactional
+    public List<Film> createAll(List<Film> films) {
+        for (int from = 0; from < films.size(); from += BATCH_SIZE) {
+            List<Film> chunk = films.subList(from, Math.min(from + BATCH_SIZE, films.size()));
+            KeyHolder keyHolder = new GeneratedKeyHolder();
+
+            jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(INSERT_FILM_SQL,
+                    new String[]{"film_id"}), new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement stmt, int i) throws SQLException {
+                    setFilmParameters(stmt, chunk.get(i));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return chunk.size();
+                }
+            }, keyHolder);
+
+            List<Map<String, Object>> keys = keyHolder.getKeyList();
+            for (int i = 0; i < chunk.size(); i++) {
+                chunk.get(i).setId(((Number) keys.get(i).values().iterator().next()).intValue());
+            }
+            insertGenres(chunk);
+        }
+        List<PopularityIndex.FilmStats> stats = films.stream()
+                .map(film -> new PopularityIndex.FilmStats(film.getId(), 0, releaseYear(film), genreIds(film)))
+                .toList();
+        List<FilmSearchIndex.FilmText> texts = films.stream()
+                .map(film -> new FilmSearchIndex.FilmText(film.getId(), film.getName(), film.getDescription()))
+                .toList();
+        AfterCommit.run(() -> {
+            stats.forEach(film -> popularityIndex.put(film.filmId(), 0, film.year(), film.genreIds()));
+            texts.forEach(film -> searchIndex.put(film.filmId(), film.title(), film.description()));
+        });
+        eventStorage.addAll(films.stream()
+                .map(film -> Event.of(null, EventType.FILM, EventOperation.ADD, film.getId()))
+                .toList());
+        return films;
+    }
+
     @Override
+    @Transactional
+    @CacheEvict(cacheNames = CacheConfig.FILMS_CACHE, key = "#film.id")
     public Film update(Film film) {
         String sql = "UPDATE films SET name = ?, description = ?, release_date = ?, " +
-                "duration = ?, mpa_id = ? WHERE film_id = ?";
+                "duration = ?, mpa_id = ?, version = version + 1 WHERE film_id = ?";
 
-        jdbcTemplate.update(sql, film.getName(),
+        int updated = jdbcTemplate.update(sql, film.getName(),
                 film.getDescription(),
                 film.getReleaseDate(),
                 film.getDuration(),
                 film.getMpa() != null ? film.getMpa().getId() : null,
                 film.getId());
+        if (updated == 0) {
+            throw new NotFoundException("Фильм с id " + film.getId() + " не найден");
+        }
 
         updateGenres(film);
-        return getById(film.getId());
+        PopularityIndex.FilmStats stats = new PopularityIndex.FilmStats(film.getId(), 0, releaseYear(film),
+                genreIds(film));
+        FilmSearchIndex.FilmText text = new FilmSearchIndex.FilmText(film.getId(), film.getName(),
+                film.getDescription());
+        AfterCommit.run(() -> {
+            popularityIndex.describe(stats.filmId(), stats.year(), stats.genreIds());
+            searchIndex.put(text.filmId(), text.title(), text.description());
+        });
+        return film;
     }
 
     @Override
+    @Cacheable(cacheNames = CacheConfig.FILMS_CACHE, key = "#id")
     public Film getById(int id) {
-        String sql = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, " +
+        String sql = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, f.version, " +
                 "m.mpa_id AS mpa_rating_id, m.name AS mpa_name " +
                 "FROM films f LEFT JOIN mpa_ratings m ON f.mpa_id = m.mpa_id WHERE f.film_id = ?";
         Film film = jdbcTemplate.queryForObject(sql, filmRowMapper, id);
 
         if (film != null) {
-            loadGenres(film);
+            loadGenres(List.of(film));
         }
 
         return film;
     }
 
+    @Override
+    public long getVersion(int id) {
+        String sql = "SELECT version FROM films WHERE film_id = ?";
+        return jdbcTemplate.queryForObject(sql, Long.class, id);
+    }
+
+    @Override
+    public String getCatalogVersion() {
+        return popularityIndex.getVersion();
+    }
+
     @Override
     public List<Film> getAll() {
-        String sql = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, "
+        String sql = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, f.version, "
                 + "m.mpa_id AS mpa_rating_id, m.name AS mpa_name " +
                 "FROM films f LEFT JOIN mpa_ratings m ON f.mpa_id = m.mpa_id";
 
         List<Film> films = jdbcTemplate.query(sql, filmRowMapper);
+        loadGenres(films);
+        return films;
+    }
 
-        films.forEach(film -> {
-            loadGenres(film);
-        });
+    @Override
+    public List<Film> getPage(int afterId, int limit) {
+        String sql = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, f.version, " +
+                "m.mpa_id AS mpa_rating_id, m.name AS mpa_name " +
+                "FROM films f LEFT JOIN mpa_ratings m ON f.mpa_id = m.mpa_id " +
+                "WHERE f.film_id > ? ORDER BY f.film_id LIMIT ?";
 
+        List<Film> films = jdbcTemplate.query(sql, filmRowMapper, afterId, limit);
+        loadGenres(films);
         return films;
     }
 
+    /**
+     * Отдаёт все фильмы с жанрами по одному, не собирая их в список.
+     * Фильмы и жанры читаются одним запросом через курсор только для чтения вперёд;
+     * строки одного фильма идут подряд и сворачиваются в один объект.
+     */
     @Override
+    public void exportAll(Consumer<Film> action) {
+        String sql = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, f.version, " +
+                "m.mpa_id AS mpa_rating_id, m.name AS mpa_name, g.genre_id, g.name AS genre_name " +
+                "FROM films f LEFT JOIN mpa_ratings m ON f.mpa_id = m.mpa_id " +
+                "LEFT JOIN film_genres fg ON f.film_id = fg.film_id " +
+                "LEFT JOIN genres g ON fg.genre_id = g.genre_id " +
+                "ORDER BY f.film_id";
+
+        jdbcTemplate.query(connection -> {
+            PreparedStatement stmt = connection.prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(EXPORT_FETCH_SIZE);
+            return stmt;
+        }, (ResultSetExtractor<Void>) rs -> {
+            Film current = null;
+            while (rs.next()) {
+                if (current == null || current.getId() != rs.getInt("film_id")) {
+                    if (current != null) {
+                        action.accept(current);
+                    }
+                    current = filmRowMapper.mapRow(rs, rs.getRow());
+                    current.setGenres(new TreeSet<>(Comparator.comparingInt(Genre::getId)));
+                }
+                int genreId = rs.getInt("genre_id");
+                if (!rs.wasNull()) {
+                    current.getGenres().add(new Genre(genreId, rs.getString("genre_name")));
+                }
+            }
+            if (current != null) {
+                action.accept(current);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public boolean exists(int id) {
+        String sql = "SELECT EXISTS (SELECT 1 FROM films WHERE film_id = ?)";
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(sql, Boolean.class, id));
+    }
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.FILMS_CACHE, key = "#id")
     public void delete(int id) {
         String sql = "DELETE FROM films WHERE film_id = ?";
         jdbcTemplate.update(sql, id);
+        AfterCommit.run(() -> {
+            popularityIndex.remove(id);
+            likeIndex.removeFilm(id);
+            searchIndex.remove(id);
+        });
+    }
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.FILMS_CACHE, key = "#filmId")
+    public void addGenre(int filmId, int genreId) {
+        String sql = "MERGE INTO film_genres (film_id, genre_id) VALUES (?, ?)";
+        jdbcTemplate.update(sql, filmId, genreId);
+        bumpVersion(filmId);
+        AfterCommit.run(() -> popularityIndex.addGenre(filmId, genreId));
+    }
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.FILMS_CACHE, key = "#filmId")
+    public boolean removeGenre(int filmId, int genreId) {
+        String sql = "DELETE FROM film_genres WHERE film_id = ? AND genre_id = ?";
+        boolean removed = jdbcTemplate.update(sql, filmId, genreId) > 0;
+        if (removed) {
+            bumpVersion(filmId);
+            AfterCommit.run(() -> popularityIndex.removeGenre(filmId, genreId));
+        }
+        return removed;
     }
 
+    /**
+     * Лайк и его снятие не помечены @Transactional: при отложенной записи запрос может ждать
+     * освобождения очереди и не должен держать на это время соединение. Транзакцию открывает
+     * только запись в базу в самом запросе.
+     */
     @Override
+    @CacheEvict(cacheNames = CacheConfig.FILMS_CACHE, key = "#filmId")
     public void addLike(int filmId, int userId) {
-        String sql = "INSERT INTO likes (film_id, user_id) VALUES (?, ?)";
-        jdbcTemplate.update(sql, filmId, userId);
+        if (isWriteBehind()) {
+            // внешних ключей при отложенной записи нет - проверяем фильм по рейтингу, пользователя по базе
+            if (!popularityIndex.contains(filmId) || !Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                    "SELECT EXISTS (SELECT 1 FROM users WHERE user_id = ?)", Boolean.class, userId))) {
+                throw new NotFoundException("Ресурс не найден");
+            }
+            likeWriteBehind.like(filmId, userId);
+            return;
+        }
+        transactionTemplate.executeWithoutResult(status -> insertLike(filmId, userId));
+    }
+
+    private void insertLike(int filmId, int userId) {
+        String sql = "INSERT INTO likes (film_id, user_id) SELECT ?, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM likes WHERE film_id = ? AND user_id = ?)";
+        int inserted;
+        try {
+            inserted = jdbcTemplate.update(sql, filmId, userId, filmId, userId);
+        } catch (DuplicateKeyException e) {
+            // параллельный запрос поставил тот же лайк между проверкой и вставкой
+            inserted = 0;
+        }
+        if (inserted > 0) {
+            jdbcTemplate.update("UPDATE films SET likes_count = likes_count + 1, version = version + 1 " +
+                    "WHERE film_id = ?", filmId);
+            AfterCommit.run(() -> {
+                popularityIndex.adjust(filmId, 1);
+                likeIndex.like(userId, filmId);
+            });
+            eventStorage.add(Event.of(userId, EventType.LIKE, EventOperation.ADD, filmId));
+        }
     }
 
     @Override
-    public void removeLike(int filmId, int userId) {
+    @CacheEvict(cacheNames = CacheConfig.FILMS_CACHE, key = "#filmId")
+    public boolean removeLike(int filmId, int userId) {
+        if (isWriteBehind()) {
+            return likeWriteBehind.unlike(filmId, userId);
+        }
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> deleteLike(filmId, userId)));
+    }
+
+    private boolean deleteLike(int filmId, int userId) {
         String sql = "DELETE FROM likes WHERE film_id = ? AND user_id = ?";
-        jdbcTemplate.update(sql, filmId, userId);
-    }
-
-    @Override
-    public List<Film> getPopular(int count) {
-        String sql = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, " +
-                "m.mpa_id AS mpa_rating_id, m.name AS mpa_name, " +
-                "COUNT(l.user_id) AS likes_count " +
-                "FROM films f " +
-                "LEFT JOIN mpa_ratings m ON f.mpa_id = m.mpa_id " +
-                "LEFT JOIN likes l ON f.film_id = l.film_id " +
-                "GROUP BY f.film_id " +
-                "ORDER BY likes_count DESC " +
-                "LIMIT ?";
-
-        return jdbcTemplate.query(sql, (rs, rowNum) -> {
-            Film film = filmRowMapper.mapRow(rs, rowNum);
-            loadGenres(film);
-            return film;
-        }, count);
-    }
-
-    private void loadGenres(Film film) {
-        String sql = "SELECT g.genre_id, g.name FROM film_genres fg " +
-                "JOIN genres g ON fg.genre_id = g.genre_id WHERE fg.film_id = ? " +
-                "ORDER BY g.genre_id";
-        Set<Genre> genres = new TreeSet<>(Comparator.comparingInt(Genre::getId));
-
-        jdbcTemplate.query(sql, (rs, rowNum) -> {
-            Genre genre = new Genre();
-            genre.setId(rs.getInt("genre_id"));
-            genre.setName(rs.getString("name"));
-            genres.add(genre);
-            return null;
-        }, film.getId());
+        if (jdbcTemplate.update(sql, filmId, userId) == 0) {
+            return false;
+        }
+        jdbcTemplate.update("UPDATE films SET likes_count = likes_count - 1, version = version + 1 " +
+                "WHERE film_id = ?", filmId);
+        AfterCommit.run(() -> {
+            popularityIndex.adjust(filmId, -1);
+            likeIndex.unlike(userId, filmId);
+        });
+        eventStorage.add(Event.of(userId, EventType.LIKE, EventOperation.REMOVE, filmId));
+        return true;
+    }
+
+    @Override
+    public List<Film> getPopular(int count, Integer genreId, Integer year) {
+        if (!popularityIndex.isBuilt()) {
+            return getPopularFromDb(count, genreId, year);
+        }
+        return getByIds(popularityIndex.getTop(count, genreId, year));
+    }
+
+    /**
+     * Отложенная запись опирается на построенный рейтинг, поэтому до его построения лайки пишутся сразу.
+     */
+    private boolean isWriteBehind() {
+        return likeWriteBehind != null && popularityIndex.isBuilt();
+    }
 
-        film.setGenres(genres);
+    /**
+     * Тот же топ, что и в рейтинге в памяти, но запросом к базе: films читается по индексу
+     * idx_films_likes_count в порядке рейтинга, а фильтр по жанру проверяется по film_genres.
+     */
+    public List<Film> getPopularFromDb(int count, Integer genreId, Integer year) {
+        StringBuilder sql = new StringBuilder("SELECT f.film_id FROM films f WHERE 1 = 1");
+        List<Object> params = new ArrayList<>();
+        if (genreId != null) {
+            sql.append(" AND EXISTS (SELECT 1 FROM film_genres fg WHERE fg.film_id = f.film_id AND fg.genre_id = ?)");
+            params.add(genreId);
+        }
+        if (year != null) {
+            sql.append(" AND f.release_date >= ? AND f.release_date < ?");
+            params.add(Date.valueOf(LocalDate.of(year, 1, 1)));
+            params.add(Date.valueOf(LocalDate.of(year + 1, 1, 1)));
+        }
+        sql.append(" ORDER BY f.likes_count DESC, f.film_id LIMIT ?");
+        params.add(count);
+        return getByIds(jdbcTemplate.queryForList(sql.toString(), Integer.class, params.toArray()));
+    }
+
+    @Override
+    public List<Film> getRecommendations(int userId, int limit) {
+        return getByIds(likeIndex.recommend(userId, limit));
+    }
+
+    @Override
+    public List<Film> search(String query, Set<FilmSearchIndex.Field> fields, int limit) {
+        return getByIds(searchIndex.search(query, fields, limit));
     }
 
+    /**
+     * Строит полнотекстовый индекс по названиям и описаниям всех фильмов.
+     */
+    @PostConstruct
+    public void rebuildSearchIndex() {
+        List<FilmSearchIndex.FilmText> films = new ArrayList<>();
+        jdbcTemplate.query("SELECT film_id, name, description FROM films", rs -> {
+            films.add(new FilmSearchIndex.FilmText(rs.getInt("film_id"),
+                    rs.getString("name"), rs.getString("description")));
+        });
+        searchIndex.rebuild(films);
+        log.info("Поисковый индекс построен для {} фильмов", films.size());
+    }
+
+    /**
+     * Строит индекс лайков пользователей по таблице likes одним проходом.
+     */
+    @PostConstruct
+    public void rebuildLikeIndex() {
+        Map<Integer, RoaringBitmap> filmsByUser = new HashMap<>();
+        jdbcTemplate.query("SELECT user_id, film_id FROM likes", rs -> {
+            filmsByUser.computeIfAbsent(rs.getInt("user_id"), id -> new RoaringBitmap()).add(rs.getInt("film_id"));
+        });
+        likeIndex.rebuild(filmsByUser);
+        log.info("Индекс лайков построен для {} пользователей", filmsByUser.size());
+    }
+
+    /**
+     * Сверяет счётчики likes_count с таблицей likes, исправляет расхождения
+     * и заново строит рейтинг популярности по данным из базы.
+     */
+    @PostConstruct
+    public void rebuildPopularityIndex() {
+        int repaired = jdbcTemplate.update("UPDATE films f SET likes_count = " +
+                "(SELECT COUNT(*) FROM likes l WHERE l.film_id = f.film_id) " +
+                "WHERE likes_count <> (SELECT COUNT(*) FROM likes l WHERE l.film_id = f.film_id)");
+        if (repaired > 0) {
+            log.warn("Исправлены счётчики лайков у {} фильмов", repaired);
+        }
+
+        Map<Integer, List<Integer>> genresByFilm = new HashMap<>();
+        jdbcTemplate.query("SELECT film_id, genre_id FROM film_genres", rs -> {
+            genresByFilm.computeIfAbsent(rs.getInt("film_id"), id -> new ArrayList<>()).add(rs.getInt("genre_id"));
+        });
+        List<PopularityIndex.FilmStats> films = new ArrayList<>();
+        jdbcTemplate.query("SELECT film_id, likes_count, release_date FROM films", rs -> {
+            int filmId = rs.getInt("film_id");
+            Date releaseDate = rs.getDate("release_date");
+            films.add(new PopularityIndex.FilmStats(filmId, rs.getInt("likes_count"),
+                    releaseDate == null ? 0 : releaseDate.toLocalDate().getYear(),
+                    genresByFilm.getOrDefault(filmId, List.of())));
+        });
+        popularityIndex.rebuild(films);
+        log.info("Рейтинг популярности построен для {} фильмов", films.size());
+    }
+
+    private List<Film> getByIds(List<Integer> ids) {
+        Map<Integer, Film> filmsById = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += IN_LIST_BATCH_SIZE) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + IN_LIST_BATCH_SIZE, ids.size()));
+            String sql = "SELECT f.film_id, f.name, f.description, f.release_date, f.duration, f.version, " +
+                    "m.mpa_id AS mpa_rating_id, m.name AS mpa_name " +
+                    "FROM films f LEFT JOIN mpa_ratings m ON f.mpa_id = m.mpa_id " +
+                    "WHERE f.film_id IN (" + placeholders(chunk.size()) + ")";
+            jdbcTemplate.query(sql, filmRowMapper, chunk.toArray())
+                    .forEach(film -> filmsById.put(film.getId(), film));
+        }
+
+        List<Film> films = ids.stream()
+                .map(filmsById::get)
+                .filter(Objects::nonNull)
+                .toList();
+        loadGenres(films);
+        return films;
+    }
+
+    /**
+     * Загружает жанры сразу для всех переданных фильмов: один запрос с IN-списком
+     * на каждые IN_LIST_BATCH_SIZE фильмов вместо отдельного запроса на каждый фильм.
+     */
+    private void loadGenres(List<Film> films) {
+        Map<Integer, Film> filmsById = new HashMap<>();
+        for (Film film : films) {
+            film.setGenres(new TreeSet<>(Comparator.comparingInt(Genre::getId)));
+            filmsById.put(film.getId(), film);
+        }
+
+        List<Integer> ids = new ArrayList<>(filmsById.keySet());
+        for (int from = 0; from < ids.size(); from += IN_LIST_BATCH_SIZE) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + IN_LIST_BATCH_SIZE, ids.size()));
+            String sql = "SELECT fg.film_id, g.genre_id, g.name FROM film_genres fg " +
+                    "JOIN genres g ON fg.genre_id = g.genre_id " +
+                    "WHERE fg.film_id IN (" + placeholders(chunk.size()) + ")";
+
+            jdbcTemplate.query(sql, rs -> {
+                Genre genre = new Genre(rs.getInt("genre_id"), rs.getString("name"));
+                filmsById.get(rs.getInt("film_id")).getGenres().add(genre);
+            }, chunk.toArray());
+        }
+    }
+
+    private void bumpVersion(int filmId) {
+        jdbcTemplate.update("UPDATE films SET version = version + 1 WHERE film_id = ?", filmId);
+    }
+
+    private static String placeholders(int count) {
+        return String.join(", ", Collections.nCopies(count, "?"));
+    }
+
+    private static void setFilmParameters(PreparedStatement stmt, Film film) throws SQLException {
+        stmt.setString(1, film.getName());
+        stmt.setString(2, film.getDescription());
+        stmt.setDate(3, Date.valueOf(film.getReleaseDate()));
+        stmt.setInt(4, film.getDuration());
+        if (film.getMpa() != null) {
+            stmt.setInt(5, film.getMpa().getId());
+        } else {
+            stmt.setNull(5, Types.INTEGER);
+        }
+    }
+
+    private static int releaseYear(Film film) {
+        return film.getReleaseDate() == null ? 0 : film.getReleaseDate().getYear();
+    }
+
+    private static List<Integer> genreIds(Film film) {
+        if (film.getGenres() == null) {
+            return List.of();
+        }
+        return film.getGenres().stream().map(Genre::getId).toList();
+    }
+
+    /**
+     * Приводит жанры фильма к переданному набору, записывая только разницу
+     * с текущими строками film_genres.
+     */
     private void updateGenres(Film film) {
-        String deleteSql = "DELETE FROM film_genres WHERE film_id = ?";
-        jdbcTemplate.update(deleteSql, film.getId());
+        Set<Integer> currentIds = new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT genre_id FROM film_genres WHERE film_id = ?", Integer.class, film.getId()));
+        Set<Integer> targetIds = new HashSet<>();
+        if (film.getGenres() != null) {
+            film.getGenres().forEach(genre -> targetIds.add(genre.getId()));
+        }
 
-        if (film.getGenres() != null && !film.getGenres().isEmpty()) {
-            String insertSql = "INSERT INTO film_genres (film_id, genre_id) VALUES (?, ?)";
-            film.getGenres().forEach(genre -> {
-                jdbcTemplate.update(insertSql, film.getId(), genre.getId());
-            });
+        List<Object[]> removed = currentIds.stream()
+                .filter(id -> !targetIds.contains(id))
+                .map(id -> new Object[]{film.getId(), id})
+                .toList();
+        List<Object[]> added = targetIds.stream()
+                .filter(id -> !currentIds.contains(id))
+                .map(id -> new Object[]{film.getId(), id})
+                .toList();
+
+        if (!removed.isEmpty()) {
+            jdbcTemplate.batchUpdate("DELETE FROM film_genres WHERE film_id = ? AND genre_id = ?", removed);
+        }
+        if (!added.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO film_genres (film_id, genre_id) VALUES (?, ?)", added);
+        }
+    }
+
+    private void insertGenres(List<Film> films) {
+        List<Object[]> rows = new ArrayList<>();
+        for (Film film : films) {
+            if (film.getGenres() != null) {
+                film.getGenres().forEach(genre -> rows.add(new Object[]{film.getId(), genre.getId()}));
+            }
+        }
+        if (!rows.isEmpty()) {
+            String sql = "INSERT INTO film_genres (film_id, genre_id) VALUES (?, ?)";
+            jdbcTemplate.batchUpdate(sql, rows);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,315 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Полнотекстовый индекс по названиям и описаниям фильмов в памяти: для каждого слова -
+ * сжатые битовые наборы id фильмов, где оно встречается в названии и в описании.
+ * Поиск находит фильмы, содержащие все слова запроса, пересечением наборов.
+ * Наборы изменяются на месте, поэтому запись и чтение разделены блокировкой чтения-записи.
+ */
+@Component
+public class FilmSearchIndex {
+    public static final int MAX_QUERY_TERMS = 10;
+
+    private final PopularityIndex popularityIndex;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Postings> postingsByTerm = new HashMap<>();
+    private final Map<Integer, Terms> termsByFilm = new HashMap<>();
+
+    public FilmSearchIndex(PopularityIndex popularityIndex) {
+        this.popularityIndex = popularityIndex;
+    }
+
+    public enum Field {
+        TITLE, DESCRIPTION
+    }
+
+    /**
+     * Разбивает текст на слова: последовательности букв и цифр любого алфавита,
+     * в нижнем регистре и с "ё", заменённой на "е".
+     */
+    public static List<String> tokenize(String text) {
+        if (text == null) {
+            return List.of();
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFC)
+                .toLowerCase(Locale.ROOT)
+                .replace('ё', 'е');
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        int i = 0;
+        while (i < normalized.length()) {
+            int codePoint = normalized.codePointAt(i);
+            boolean wordChar = Character.isLetterOrDigit(codePoint);
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+            i += Character.charCount(codePoint);
+        }
+        if (start >= 0) {
+            tokens.add(normalized.substring(start));
+        }
+        return tokens;
+    }
+
+    public void put(int filmId, String title, String description) {
+        Set<String> titleTerms = new LinkedHashSet<>(tokenize(title));
+        Set<String> descriptionTerms = new LinkedHashSet<>(tokenize(description));
+        lock.writeLock().lock();
+        try {
+            unindex(filmId);
+            index(filmId, titleTerms, descriptionTerms);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int filmId) {
+        lock.writeLock().lock();
+        try {
+            unindex(filmId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Фильмы, в выбранных полях которых есть все слова запроса, по убыванию релевантности.
+     * Если ищем и по названию, и по описанию, релевантность - сумма весов слов, найденных
+     * в названии; вес слова тем больше, чем реже оно встречается в каталоге.
+     * Фильмы одной релевантности упорядочены по лайкам, затем по id.
+     */
+    public List<Integer> search(String query, Set<Field> fields, int limit) {
+        List<String> terms = tokenize(query).stream().distinct().toList();
+        if (terms.isEmpty() || fields.isEmpty()) {
+            return List.of();
+        }
+
+        lock.readLock().lock();
+        try {
+            RoaringBitmap[] matchesByTerm = new RoaringBitmap[terms.size()];
+            RoaringBitmap[] titlesByTerm = new RoaringBitmap[terms.size()];
+            for (int i = 0; i < terms.size(); i++) {
+                Postings postings = postingsByTerm.get(terms.get(i));
+                if (postings == null) {
+                    return List.of();
+                }
+                matchesByTerm[i] = postings.in(fields);
+                titlesByTerm[i] = postings.title;
+            }
+
+            RoaringBitmap[] bySize = matchesByTerm.clone();
+            Arrays.sort(bySize, Comparator.comparingInt(RoaringBitmap::getCardinality));
+            RoaringBitmap matches = bySize[0].clone();
+            for (int i = 1; i < bySize.length && !matches.isEmpty(); i++) {
+                matches.and(bySize[i]);
+            }
+            if (matches.isEmpty()) {
+                return List.of();
+            }
+            if (fields.size() == 1) {
+                return topByLikes(matches, limit);
+            }
+            return rankByTitleHits(matches, matchesByTerm, titlesByTerm, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void rebuild(Collection<FilmText> films) {
+        lock.writeLock().lock();
+        try {
+            postingsByTerm.clear();
+            termsByFilm.clear();
+            for (FilmText film : films) {
+                index(film.filmId(), new LinkedHashSet<>(tokenize(film.title())),
+                        new LinkedHashSet<>(tokenize(film.description())));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Найденные фильмы делятся на группы по набору слов запроса, которые есть в названии.
+     * Группы перебираются по убыванию суммарного веса этих слов, пока не наберётся limit фильмов,
+     * так что оценка не считается для каждого найденного фильма отдельно.
+     */
+    private List<Integer> rankByTitleHits(RoaringBitmap matches, RoaringBitmap[] matchesByTerm,
+                                          RoaringBitmap[] titlesByTerm, int limit) {
+        int termCount = matchesByTerm.length;
+        double[] weights = new double[termCount];
+        RoaringBitmap[] titleHits = new RoaringBitmap[termCount];
+        for (int i = 0; i < termCount; i++) {
+            weights[i] = Math.log(1 + (double) termsByFilm.size() / matchesByTerm[i].getCardinality());
+            titleHits[i] = RoaringBitmap.and(matches, titlesByTerm[i]);
+        }
+
+        List<Integer> masks = new ArrayList<>();
+        double[] maskWeights = new double[1 << termCount];
+        for (int mask = 0; mask < 1 << termCount; mask++) {
+            boolean possible = true;
+            for (int i = 0; i < termCount && possible; i++) {
+                if ((mask & 1 << i) != 0) {
+                    maskWeights[mask] += weights[i];
+                    possible = !titleHits[i].isEmpty();
+                }
+            }
+            if (possible) {
+                masks.add(mask);
+            }
+        }
+        masks.sort(Comparator.<Integer>comparingDouble(mask -> maskWeights[mask]).reversed()
+                .thenComparing(Comparator.naturalOrder()));
+
+        List<Integer> ranked = new ArrayList<>(limit);
+        for (int mask : masks) {
+            RoaringBitmap group = null;
+            for (int i = 0; i < termCount; i++) {
+                if ((mask & 1 << i) == 0) {
+                    continue;
+                }
+                if (group == null) {
+                    group = titleHits[i].clone();
+                } else {
+                    group.and(titleHits[i]);
+                }
+            }
+            if (group == null) {
+                group = matches.clone();
+            }
+            for (int i = 0; i < termCount && !group.isEmpty(); i++) {
+                if ((mask & 1 << i) == 0) {
+                    group.andNot(titleHits[i]);
+                }
+            }
+            if (!group.isEmpty()) {
+                ranked.addAll(topByLikes(group, limit - ranked.size()));
+                if (ranked.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return ranked;
+    }
+
+    /**
+     * Самые популярные фильмы группы. Обход общего рейтинга до count совпадений просматривает
+     * примерно count * (размер рейтинга / размер группы) записей, сортировка - всю группу,
+     * поэтому небольшая группа сортируется, а большая отбирается обходом рейтинга.
+     */
+    private List<Integer> topByLikes(RoaringBitmap films, int count) {
+        int size = films.getCardinality();
+        if ((long) size * size > (long) count * popularityIndex.size()) {
+            List<Integer> top = popularityIndex.getTop(count, films::contains);
+            // фильм мог ещё не попасть в рейтинг - тогда сортируем группу целиком
+            if (top.size() == Math.min(count, size)) {
+                return top;
+            }
+        }
+
+        // ключ: лайки в старших битах, инвертированный id в младших
+        long[] keys = new long[size];
+        int i = 0;
+        for (int filmId : films) {
+            keys[i++] = ((long) popularityIndex.getLikes(filmId) << 32) | (Integer.MAX_VALUE - filmId);
+        }
+        Arrays.sort(keys);
+        List<Integer> top = new ArrayList<>(Math.min(count, size));
+        for (int j = keys.length - 1; j >= 0 && top.size() < count; j--) {
+            top.add(Integer.MAX_VALUE - (int) (keys[j] & 0xFFFFFFFFL));
+        }
+        return top;
+    }
+
+    private void index(int filmId, Set<String> titleTerms, Set<String> descriptionTerms) {
+        Postings[] title = new Postings[titleTerms.size()];
+        int i = 0;
+        for (String term : titleTerms) {
+            title[i] = postingsByTerm.computeIfAbsent(term, Postings::new);
+            title[i++].title.add(filmId);
+        }
+        Postings[] description = new Postings[descriptionTerms.size()];
+        i = 0;
+        for (String term : descriptionTerms) {
+            description[i] = postingsByTerm.computeIfAbsent(term, Postings::new);
+            description[i++].description.add(filmId);
+        }
+        termsByFilm.put(filmId, new Terms(title, description));
+    }
+
+    private void unindex(int filmId) {
+        Terms terms = termsByFilm.remove(filmId);
+        if (terms == null) {
+            return;
+        }
+        for (Postings postings : terms.title()) {
+            postings.title.remove(filmId);
+            dropIfEmpty(postings);
+        }
+        for (Postings postings : terms.description()) {
+            postings.description.remove(filmId);
+            dropIfEmpty(postings);
+        }
+    }
+
+    private void dropIfEmpty(Postings postings) {
+        if (postings.title.isEmpty() && postings.description.isEmpty()) {
+            postingsByTerm.remove(postings.term);
+        }
+    }
+
+    /**
+     * Название и описание фильма для построения индекса.
+     */
+    public record FilmText(int filmId, String title, String description) {
+    }
+
+    /**
+     * Фильмы, в названии и описании которых встречается слово.
+     */
+    private static final class Postings {
+        private final String term;
+        private final RoaringBitmap title = new RoaringBitmap();
+        private final RoaringBitmap description = new RoaringBitmap();
+
+        Postings(String term) {
+            this.term = term;
+        }
+
+        RoaringBitmap in(Set<Field> fields) {
+            if (!fields.contains(Field.DESCRIPTION)) {
+                return title;
+            }
+            if (!fields.contains(Field.TITLE)) {
+                return description;
+            }
+            return RoaringBitmap.or(title, description);
+        }
+    }
+
+    /**
+     * Слова фильма, по которым он проиндексирован, чтобы при изменении убрать его из наборов.
+     */
+    private record Terms(Postings[] title, Postings[] description) {
+    }
+}
@@ -3,21 +3,49 @@ package ru.yandex.practicum.filmorate.storage.film;
 import ru.yandex.practicum.filmorate.model.Film;
 
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public interface FilmStorage {
     Film create(Film film);
 
+    List<Film> createAll(List<Film> films);
+
     Film update(Film film);
 
     Film getById(int id);
 
+    /**
+     * Версия строки фильма, которая растёт при каждом его изменении, включая жанры и лайки.
+     */
+    long getVersion(int id);
+
+    /**
+     * Версия каталога фильмов целиком: меняется при любом изменении любого фильма.
+     */
+    String getCatalogVersion();
+
     List<Film> getAll();
 
+    List<Film> getPage(int afterId, int limit);
+
+    void exportAll(Consumer<Film> action);
+
+    boolean exists(int id);
+
     void delete(int id);
 
+    void addGenre(int filmId, int genreId);
+
+    boolean removeGenre(int filmId, int genreId);
+
     void addLike(int filmId, int userId);
 
-    void removeLike(int filmId, int userId);
+    boolean removeLike(int filmId, int userId);
+
+    List<Film> getPopular(int count, Integer genreId, Integer year);
+
+    List<Film> getRecommendations(int userId, int limit);
 
-    List<Film> getPopular(int count);
+    List<Film> search(String query, Set<FilmSearchIndex.Field> fields, int limit);
 }
@@ -0,0 +1,198 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Лайки пользователей в памяти: для каждого пользователя - сжатый битовый набор id фильмов
+ * и обратный набор id пользователей для каждого фильма.
+ * Хранилище только ставит изменения в очередь, а фоновая задача применяет их пачкой,
+ * заменяя наборы копиями. Поэтому чтение не блокируется и не зависит от размера таблицы likes.
+ */
+@Slf4j
+@Component
+public class LikeIndex {
+    /**
+     * Сколько самых похожих пользователей участвует в рекомендации.
+     */
+    private static final int NEIGHBOURS = 50;
+    private static final Comparator<Neighbour> BY_OVERLAP = Comparator.comparingInt(Neighbour::overlap).reversed()
+            .thenComparingInt(Neighbour::userId);
+
+    private static final RoaringBitmap EMPTY = new RoaringBitmap();
+
+    private final ConcurrentHashMap<Integer, RoaringBitmap> filmsByUser = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, RoaringBitmap> usersByFilm = new ConcurrentHashMap<>();
+    private final Queue<Change> pendingChanges = new ConcurrentLinkedQueue<>();
+
+    public void like(int userId, int filmId) {
+        pendingChanges.add(new Change(Kind.LIKE, userId, filmId));
+    }
+
+    public void unlike(int userId, int filmId) {
+        pendingChanges.add(new Change(Kind.UNLIKE, userId, filmId));
+    }
+
+    public void removeFilm(int filmId) {
+        pendingChanges.add(new Change(Kind.REMOVE_FILM, 0, filmId));
+    }
+
+    public void removeUser(int userId) {
+        pendingChanges.add(new Change(Kind.REMOVE_USER, userId, 0));
+    }
+
+    /**
+     * Есть ли лайк в применённом состоянии индекса, без учёта изменений в очереди.
+     */
+    public boolean isLiked(int userId, int filmId) {
+        RoaringBitmap films = filmsByUser.get(userId);
+        return films != null && films.contains(filmId);
+    }
+
+    public int getPendingChanges() {
+        return pendingChanges.size();
+    }
+
+    /**
+     * Применяет накопленные изменения. Каждый затронутый набор копируется один раз за вызов
+     * и публикуется целиком, так что параллельное чтение видит либо старый, либо новый набор.
+     */
+    @Scheduled(fixedDelayString = "${filmorate.recommendations.refresh-delay:1000}")
+    public synchronized void applyPendingChanges() {
+        Map<Integer, RoaringBitmap> updatedUsers = new HashMap<>();
+        Map<Integer, RoaringBitmap> updatedFilms = new HashMap<>();
+        int applied = 0;
+        for (Change change = pendingChanges.poll(); change != null; change = pendingChanges.poll()) {
+            apply(change, updatedUsers, updatedFilms);
+            applied++;
+        }
+        publish(filmsByUser, updatedUsers);
+        publish(usersByFilm, updatedFilms);
+        if (applied > 0) {
+            log.debug("Индекс лайков: применено изменений {}, обновлено пользователей {}",
+                    applied, updatedUsers.size());
+        }
+    }
+
+    /**
+     * Фильмы, которые лайкали самые похожие пользователи, а сам пользователь - нет.
+     * Похожесть - число общих лайков. Кандидаты - только пользователи, лайкнувшие хотя бы один
+     * фильм из лайков пользователя (объединение наборов по фильмам), их похожесть считается
+     * параллельно. Вес фильма - сумма похожестей лайкнувших его соседей.
+     */
+    public List<Integer> recommend(int userId, int limit) {
+        RoaringBitmap own = filmsByUser.get(userId);
+        if (own == null) {
+            return List.of();
+        }
+
+        RoaringBitmap candidates = RoaringBitmap.or(own.stream()
+                .mapToObj(usersByFilm::get)
+                .filter(Objects::nonNull)
+                .iterator());
+        candidates.remove(userId);
+
+        List<Neighbour> neighbours = candidates.stream().parallel()
+                .mapToObj(candidateId -> {
+                    RoaringBitmap films = filmsByUser.getOrDefault(candidateId, EMPTY);
+                    return new Neighbour(candidateId, films, RoaringBitmap.andCardinality(own, films));
+                })
+                .filter(neighbour -> neighbour.overlap() > 0)
+                .sorted(BY_OVERLAP)
+                .limit(NEIGHBOURS)
+                .toList();
+
+        Map<Integer, Integer> scores = new HashMap<>();
+        for (Neighbour neighbour : neighbours) {
+            RoaringBitmap.andNot(neighbour.films(), own)
+                    .forEach((int filmId) -> scores.merge(filmId, neighbour.overlap(), Integer::sum));
+        }
+
+        List<Map.Entry<Integer, Integer>> ranked = new ArrayList<>(scores.entrySet());
+        ranked.sort(Map.Entry.<Integer, Integer>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+        return ranked.stream()
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .toList();
+    }
+
+    /**
+     * Заменяет индекс данными из базы. Изменения, поставленные в очередь во время чтения,
+     * не сбрасываются: повторное применение лайка или его снятия ничего не меняет.
+     */
+    public synchronized void rebuild(Map<Integer, RoaringBitmap> filmsById) {
+        Map<Integer, RoaringBitmap> usersById = new HashMap<>();
+        filmsById.forEach((userId, films) -> films.forEach((int filmId) ->
+                usersById.computeIfAbsent(filmId, id -> new RoaringBitmap()).add(userId)));
+        filmsByUser.clear();
+        usersByFilm.clear();
+        publish(filmsByUser, filmsById);
+        publish(usersByFilm, usersById);
+    }
+
+    private void apply(Change change, Map<Integer, RoaringBitmap> updatedUsers,
+                       Map<Integer, RoaringBitmap> updatedFilms) {
+        switch (change.kind()) {
+            case LIKE -> {
+                copyFor(filmsByUser, change.userId(), updatedUsers).add(change.filmId());
+                copyFor(usersByFilm, change.filmId(), updatedFilms).add(change.userId());
+            }
+            case UNLIKE -> {
+                copyFor(filmsByUser, change.userId(), updatedUsers).remove(change.filmId());
+                copyFor(usersByFilm, change.filmId(), updatedFilms).remove(change.userId());
+            }
+            case REMOVE_USER -> {
+                RoaringBitmap films = copyFor(filmsByUser, change.userId(), updatedUsers);
+                films.forEach((int filmId) -> copyFor(usersByFilm, filmId, updatedFilms).remove(change.userId()));
+                films.clear();
+            }
+            case REMOVE_FILM -> {
+                RoaringBitmap users = copyFor(usersByFilm, change.filmId(), updatedFilms);
+                users.forEach((int userId) -> copyFor(filmsByUser, userId, updatedUsers).remove(change.filmId()));
+                users.clear();
+            }
+        }
+    }
+
+    private static RoaringBitmap copyFor(Map<Integer, RoaringBitmap> published, int id,
+                                         Map<Integer, RoaringBitmap> updated) {
+        return updated.computeIfAbsent(id, key -> {
+            RoaringBitmap current = published.get(key);
+            return current == null ? new RoaringBitmap() : current.clone();
+        });
+    }
+
+    private static void publish(Map<Integer, RoaringBitmap> published, Map<Integer, RoaringBitmap> updated) {
+        updated.forEach((id, bitmap) -> {
+            if (bitmap.isEmpty()) {
+                published.remove(id);
+            } else {
+                bitmap.runOptimize();
+                published.put(id, bitmap);
+            }
+        });
+    }
+
+    private enum Kind {
+        LIKE, UNLIKE, REMOVE_FILM, REMOVE_USER
+    }
+
+    private record Change(Kind kind, int userId, int filmId) {
+    }
+
+    private record Neighbour(int userId, RoaringBitmap films, int overlap) {
+    }
+}
@@ -0,0 +1,286 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.config.LikeWriteBehindProperties;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.EventOperation;
+import ru.yandex.practicum.filmorate.model.EventType;
+import ru.yandex.practicum.filmorate.storage.event.EventStorage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Отложенная запись лайков. Запрос только меняет ожидаемое состояние пары (фильм, пользователь)
+ * в памяти и сразу поправляет рейтинг популярности; фоновый поток записывает накопленное
+ * пачками по размеру очереди или по таймеру.
+ * Для каждой пары хранится исходное состояние и желаемое, поэтому лайк и его снятие до записи
+ * взаимно гасятся. Исходное состояние берётся из индекса лайков: после записи пачки он
+ * обновляется раньше, чем пары удаляются из очереди, так что пара без записи в очереди
+ * всегда совпадает с базой.
+ * В ленту событий попадают только записанные изменения: лайк, снятый до записи, событий не оставляет.
+ * Пачка всегда пишется в собственной транзакции, чтобы чужие лайки не откатывались вместе
+ * с транзакцией того, кто вызвал запись.
+ * Когда очередь полна, запрос не пишет её сам, а ждёт, пока фоновый поток запишет пачку: так
+ * ожидающие запросы не держат соединений, и шторм лайков не выбирает весь пул. Запись идёт под
+ * ReentrantLock, а не synchronized, чтобы ожидание не закрепляло виртуальные потоки за носителями.
+ */
+@Slf4j
+public class LikeWriteBehind {
+    private static final String INSERT_LIKE_SQL = "INSERT INTO likes (film_id, user_id) SELECT ?, ? " +
+            "WHERE NOT EXISTS (SELECT 1 FROM likes WHERE film_id = ? AND user_id = ?) " +
+            "AND EXISTS (SELECT 1 FROM films WHERE film_id = ?) " +
+            "AND EXISTS (SELECT 1 FROM users WHERE user_id = ?)";
+    private static final String DELETE_LIKE_SQL = "DELETE FROM likes WHERE film_id = ? AND user_id = ?";
+    private static final String UPDATE_COUNT_SQL = "UPDATE films SET likes_count = likes_count + ?, " +
+            "version = version + 1 WHERE film_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final PopularityIndex popularityIndex;
+    private final LikeIndex likeIndex;
+    private final EventStorage eventStorage;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalMillis;
+
+    private final ConcurrentHashMap<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final Semaphore wakeUp = new Semaphore(0);
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Condition flushed = flushLock.newCondition();
+    private volatile boolean running;
+    private Thread flusher;
+
+    public LikeWriteBehind(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                           PopularityIndex popularityIndex, LikeIndex likeIndex, EventStorage eventStorage,
+                           LikeWriteBehindProperties properties) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.popularityIndex = popularityIndex;
+        this.likeIndex = likeIndex;
+        this.eventStorage = eventStorage;
+        this.capacity = properties.getCapacity();
+        this.batchSize = properties.getBatchSize();
+        this.flushIntervalMillis = properties.getFlushInterval().toMillis();
+    }
+
+    @PostConstruct
+    public void start() {
+        running = true;
+        flusher = Thread.ofPlatform().name("like-write-behind").daemon().start(this::run);
+        log.info("Отложенная запись лайков включена: пачка {}, интервал {} мс", batchSize, flushIntervalMillis);
+    }
+
+    /**
+     * Останавливает фоновый поток и записывает всё, что осталось в очереди.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        running = false;
+        wakeUp.release();
+        if (flusher != null) {
+            flusher.join();
+        }
+        int written = flush();
+        log.info("Очередь лайков записана перед остановкой, изменений: {}", written);
+    }
+
+    /**
+     * Ставит лайк. Возвращает, был ли лайк до этого.
+     */
+    public boolean like(int filmId, int userId) {
+        return change(filmId, userId, true);
+    }
+
+    /**
+     * Снимает лайк. Возвращает, был ли лайк до этого.
+     */
+    public boolean unlike(int filmId, int userId) {
+        return change(filmId, userId, false);
+    }
+
+    public int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * Записывает в базу все накопленные изменения одной транзакцией и публикует их в индексе лайков.
+     * Пары, изменённые во время записи, остаются в очереди с новым исходным состоянием.
+     */
+    public int flush() {
+        flushLock.lock();
+        try {
+            return writeBatch();
+        } finally {
+            flushed.signalAll();
+            flushLock.unlock();
+        }
+    }
+
+    private int writeBatch() {
+        List<Pending> batch = new ArrayList<>(pending.values());
+        List<Pending> likes = new ArrayList<>();
+        List<Pending> unlikes = new ArrayList<>();
+        for (Pending change : batch) {
+            if (change.liked() && !change.base()) {
+                likes.add(change);
+            } else if (!change.liked() && change.base()) {
+                unlikes.add(change);
+            }
+        }
+
+        if (!likes.isEmpty() || !unlikes.isEmpty()) {
+            Written written = transactionTemplate.execute(status -> write(likes, unlikes));
+            // пропущенная строка - фильм или пользователь удалены: возвращаем рейтингу оптимистичную поправку
+            for (int i = 0; i < likes.size(); i++) {
+                Pending change = likes.get(i);
+                if (written.inserted()[i] > 0) {
+                    likeIndex.like(change.userId(), change.filmId());
+                } else {
+                    popularityIndex.adjust(change.filmId(), -1);
+                }
+            }
+            for (int i = 0; i < unlikes.size(); i++) {
+                Pending change = unlikes.get(i);
+                if (written.deleted()[i] > 0) {
+                    likeIndex.unlike(change.userId(), change.filmId());
+                } else {
+                    popularityIndex.adjust(change.filmId(), 1);
+                }
+            }
+            likeIndex.applyPendingChanges();
+        }
+
+        for (Pending change : batch) {
+            pending.computeIfPresent(key(change.filmId(), change.userId()), (key, current) -> current == change
+                    ? null
+                    : new Pending(current.filmId(), current.userId(), change.liked(), current.liked()));
+        }
+        return likes.size() + unlikes.size();
+    }
+
+    private boolean change(int filmId, int userId, boolean liked) {
+        if (pending.size() >= capacity) {
+            awaitCapacity();
+        }
+        AtomicBoolean wasLiked = new AtomicBoolean();
+        pending.compute(key(filmId, userId), (key, current) -> {
+            boolean base = current != null ? current.base() : likeIndex.isLiked(userId, filmId);
+            boolean state = current != null ? current.liked() : base;
+            wasLiked.set(state);
+            if (state == liked) {
+                return current;
+            }
+            popularityIndex.adjust(filmId, liked ? 1 : -1);
+            return new Pending(filmId, userId, base, liked);
+        });
+        if (pending.size() >= batchSize) {
+            wakeUp.release();
+        }
+        return wasLiked.get();
+    }
+
+    /**
+     * Ждёт, пока фоновый поток освободит место в очереди, и так замедляет поток лайков до скорости базы.
+     * Если поток уже остановлен, запрос записывает очередь сам.
+     */
+    private void awaitCapacity() {
+        flushLock.lock();
+        try {
+            while (pending.size() >= capacity) {
+                if (!running) {
+                    flush();
+                    return;
+                }
+                wakeUp.release();
+                flushed.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private Written write(List<Pending> likes, List<Pending> unlikes) {
+        int[] inserted = jdbcTemplate.batchUpdate(INSERT_LIKE_SQL, likes.stream()
+                .map(change -> new Object[]{change.filmId(), change.userId(), change.filmId(), change.userId(),
+                        change.filmId(), change.userId()})
+                .toList());
+        int[] deleted = jdbcTemplate.batchUpdate(DELETE_LIKE_SQL, unlikes.stream()
+                .map(change -> new Object[]{change.filmId(), change.userId()})
+                .toList());
+
+        Map<Integer, Integer> deltas = new HashMap<>();
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < likes.size(); i++) {
+            deltas.merge(likes.get(i).filmId(), inserted[i], Integer::sum);
+            if (inserted[i] > 0) {
+                events.add(Event.of(likes.get(i).userId(), EventType.LIKE, EventOperation.ADD,
+                        likes.get(i).filmId()));
+            }
+        }
+        for (int i = 0; i < unlikes.size(); i++) {
+            deltas.merge(unlikes.get(i).filmId(), -deleted[i], Integer::sum);
+            if (deleted[i] > 0) {
+                events.add(Event.of(unlikes.get(i).userId(), EventType.LIKE, EventOperation.REMOVE,
+                        unlikes.get(i).filmId()));
+            }
+        }
+        jdbcTemplate.batchUpdate(UPDATE_COUNT_SQL, deltas.entrySet().stream()
+                .filter(delta -> delta.getValue() != 0)
+                .map(delta -> new Object[]{delta.getValue(), delta.getKey()})
+                .toList());
+        eventStorage.addAll(events);
+        return new Written(inserted, deleted);
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                wakeUp.tryAcquire(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                wakeUp.drainPermits();
+                if (running) {
+                    flush();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Не удалось записать лайки, повтор при следующем сбросе", e);
+                // ожидающие запросы снова будят поток - без паузы он повторял бы запись без остановки
+                try {
+                    Thread.sleep(flushIntervalMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static long key(int filmId, int userId) {
+        return ((long) filmId << 32) | (userId & 0xFFFFFFFFL);
+    }
+
+    private record Pending(int filmId, int userId, boolean base, boolean liked) {
+    }
+
+    private record Written(int[] inserted, int[] deleted) {
+    }
+}
@@ -17,7 +17,7 @@ public class MpaDbStorage {
     }
 
     public List<Mpa> getAll() {
-        String sql = "SELECT * FROM mpa_ratings";
+        String sql = "SELECT * FROM mpa_ratings ORDER BY mpa_id";
         return jdbcTemplate.query(sql, (rs, rowNum) ->
                 new Mpa(
                         rs.getInt("mpa_id"),
@@ -0,0 +1,214 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Рейтинг фильмов по количеству лайков, который хранится в памяти.
+ * Фильмы упорядочены по убыванию лайков, при равенстве - по id, поэтому
+ * топ-N читается за O(N) без обращения к таблице likes.
+ * Кроме общего рейтинга ведутся отдельные рейтинги по каждому жанру и году выпуска,
+ * чтобы топ с фильтром тоже читался с начала готового списка.
+ * Любое изменение фильма проходит через рейтинг, поэтому он же ведёт версию каталога для ETag
+ * списков: счётчик изменений с момента запуска, к которому добавлено время запуска, чтобы
+ * версии до и после перезапуска не совпадали.
+ */
+@Component
+public class PopularityIndex {
+    private static final Comparator<Entry> ORDER = Comparator.comparingInt(Entry::likes).reversed()
+            .thenComparingInt(Entry::filmId);
+
+    private final ConcurrentHashMap<Integer, State> states = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<>(ORDER);
+    private final ConcurrentHashMap<Integer, ConcurrentSkipListSet<Entry>> rankingByGenre = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, ConcurrentSkipListSet<Entry>> rankingByYear = new ConcurrentHashMap<>();
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLong version = new AtomicLong();
+    private volatile boolean built;
+
+    public void put(int filmId, int likes, int year, Collection<Integer> genreIds) {
+        State state = new State(new Entry(filmId, likes), year, Set.copyOf(genreIds));
+        states.compute(filmId, (id, old) -> replace(old, state));
+    }
+
+    /**
+     * Обновляет год и жанры фильма, сохраняя число лайков.
+     */
+    public void describe(int filmId, int year, Collection<Integer> genreIds) {
+        Set<Integer> genres = Set.copyOf(genreIds);
+        states.compute(filmId, (id, old) -> replace(old,
+                new State(old == null ? new Entry(id, 0) : old.entry(), year, genres)));
+    }
+
+    public void addGenre(int filmId, int genreId) {
+        states.computeIfPresent(filmId, (id, old) -> {
+            Set<Integer> genres = new HashSet<>(old.genreIds());
+            genres.add(genreId);
+            return replace(old, new State(old.entry(), old.year(), Set.copyOf(genres)));
+        });
+    }
+
+    public void removeGenre(int filmId, int genreId) {
+        states.computeIfPresent(filmId, (id, old) -> {
+            Set<Integer> genres = new HashSet<>(old.genreIds());
+            genres.remove(genreId);
+            return replace(old, new State(old.entry(), old.year(), Set.copyOf(genres)));
+        });
+    }
+
+    public void adjust(int filmId, int delta) {
+        states.computeIfPresent(filmId, (id, old) -> replace(old,
+                new State(new Entry(id, old.entry().likes() + delta), old.year(), old.genreIds())));
+    }
+
+    public void remove(int filmId) {
+        states.compute(filmId, (id, old) -> replace(old, null));
+    }
+
+    public int getLikes(int filmId) {
+        State state = states.get(filmId);
+        return state == null ? 0 : state.entry().likes();
+    }
+
+    public boolean contains(int filmId) {
+        return states.containsKey(filmId);
+    }
+
+    public int size() {
+        return states.size();
+    }
+
+    public String getVersion() {
+        return epoch + "-" + version.get();
+    }
+
+    /**
+     * Число изменений рейтинга с момента запуска.
+     */
+    public long getChangeCount() {
+        return version.get();
+    }
+
+    /**
+     * Построен ли рейтинг по базе; до этого хранилище отвечает запросом к таблице films.
+     */
+    public boolean isBuilt() {
+        return built;
+    }
+
+    public List<Integer> getTop(int count) {
+        return getTop(count, null, null);
+    }
+
+    /**
+     * Топ фильмов с необязательными фильтрами. При обоих фильтрах обходится рейтинг жанра,
+     * а год проверяется по текущему состоянию фильма.
+     */
+    public List<Integer> getTop(int count, Integer genreId, Integer year) {
+        NavigableSet<Entry> source;
+        if (genreId != null) {
+            source = rankingByGenre.get(genreId);
+        } else if (year != null) {
+            source = rankingByYear.get(year);
+        } else {
+            source = ranking;
+        }
+        if (source == null) {
+            return List.of();
+        }
+        return walk(source, count, state -> (genreId == null || state.genreIds().contains(genreId))
+                && (year == null || state.year() == year));
+    }
+
+    /**
+     * Топ среди фильмов, прошедших фильтр по id. Рейтинг обходится с начала, поэтому
+     * фильтр должен пропускать заметную долю фильмов, иначе обход дойдёт до конца рейтинга.
+     */
+    public List<Integer> getTop(int count, IntPredicate filter) {
+        return walk(ranking, count, state -> filter.test(state.entry().filmId()));
+    }
+
+    private List<Integer> walk(NavigableSet<Entry> source, int count, Predicate<State> filter) {
+        List<Integer> top = new ArrayList<>(Math.min(count, states.size()));
+        for (Entry entry : source) {
+            if (top.size() >= count) {
+                break;
+            }
+            State state = states.get(entry.filmId());
+            // во время обновления фильм может ненадолго присутствовать в рейтинге дважды
+            if (state != null && entry.equals(state.entry()) && filter.test(state)) {
+                top.add(entry.filmId());
+            }
+        }
+        return top;
+    }
+
+    public void rebuild(Collection<FilmStats> films) {
+        built = false;
+        states.clear();
+        ranking.clear();
+        rankingByGenre.clear();
+        rankingByYear.clear();
+        films.forEach(film -> put(film.filmId(), film.likes(), film.year(), film.genreIds()));
+        built = true;
+        version.incrementAndGet();
+    }
+
+    /**
+     * Добавляет новое состояние во все его рейтинги и убирает старое оттуда, где его заменять нечем.
+     * Сравнение в рейтингах идёт только по лайкам и id, поэтому одинаковую запись из рейтинга,
+     * в котором фильм остаётся, удалять нельзя - вместе с ней исчезла бы и новая.
+     */
+    private State replace(State old, State updated) {
+        if (updated != null) {
+            ranking.add(updated.entry());
+            updated.genreIds().forEach(genreId -> rankingFor(rankingByGenre, genreId).add(updated.entry()));
+            rankingFor(rankingByYear, updated.year()).add(updated.entry());
+        }
+        if (old != null) {
+            boolean sameEntry = updated != null && old.entry().equals(updated.entry());
+            if (!sameEntry) {
+                ranking.remove(old.entry());
+            }
+            for (int genreId : old.genreIds()) {
+                if (!sameEntry || !updated.genreIds().contains(genreId)) {
+                    rankingFor(rankingByGenre, genreId).remove(old.entry());
+                }
+            }
+            if (!sameEntry || updated.year() != old.year()) {
+                rankingFor(rankingByYear, old.year()).remove(old.entry());
+            }
+        }
+        version.incrementAndGet();
+        return updated;
+    }
+
+    private static ConcurrentSkipListSet<Entry> rankingFor(
+            ConcurrentHashMap<Integer, ConcurrentSkipListSet<Entry>> rankings, int key) {
+        return rankings.computeIfAbsent(key, k -> new ConcurrentSkipListSet<>(ORDER));
+    }
+
+    /**
+     * Данные фильма для построения рейтинга.
+     */
+    public record FilmStats(int filmId, int likes, int year, Collection<Integer> genreIds) {
+    }
+
+    private record Entry(int filmId, int likes) {
+    }
+
+    private record State(Entry entry, int year, Set<Integer> genreIds) {
+    }
+}
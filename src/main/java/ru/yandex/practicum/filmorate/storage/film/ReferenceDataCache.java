@@ -0,0 +1,82 @@
+package ru.yandex.practicum.filmorate.storage.film;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш справочников жанров и рейтингов MPA.
+ * Таблицы меняются только через миграции, поэтому загружаются один раз при старте
+ * в массивы, индексированные по id, и перечитываются только через {@link #refresh()}.
+ * Версия для ETag меняется при каждой перезагрузке, в том числе при перезапуске приложения.
+ */
+@Slf4j
+@Component
+public class ReferenceDataCache {
+    private final GenreDbStorage genreStorage;
+    private final MpaDbStorage mpaStorage;
+
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLong loads = new AtomicLong();
+    private volatile Snapshot snapshot = new Snapshot(List.of(), new Genre[0], List.of(), new Mpa[0], "");
+
+    @Autowired
+    public ReferenceDataCache(GenreDbStorage genreStorage, MpaDbStorage mpaStorage) {
+        this.genreStorage = genreStorage;
+        this.mpaStorage = mpaStorage;
+    }
+
+    @PostConstruct
+    public void refresh() {
+        List<Genre> genres = List.copyOf(genreStorage.getAll());
+        List<Mpa> mpaRatings = List.copyOf(mpaStorage.getAll());
+
+        Genre[] genresById = new Genre[genres.stream().mapToInt(Genre::getId).max().orElse(0) + 1];
+        genres.forEach(genre -> genresById[genre.getId()] = genre);
+
+        Mpa[] mpaById = new Mpa[mpaRatings.stream().mapToInt(Mpa::getId).max().orElse(0) + 1];
+        mpaRatings.forEach(mpa -> mpaById[mpa.getId()] = mpa);
+
+        snapshot = new Snapshot(genres, genresById, mpaRatings, mpaById, epoch + "-" + loads.incrementAndGet());
+        log.info("Загружены справочники: жанров {}, рейтингов MPA {}", genres.size(), mpaRatings.size());
+    }
+
+    public String getVersion() {
+        return snapshot.version();
+    }
+
+    public List<Genre> getAllGenres() {
+        return snapshot.genres();
+    }
+
+    public Genre getGenre(int id) {
+        Genre[] genresById = snapshot.genresById();
+        if (id < 0 || id >= genresById.length || genresById[id] == null) {
+            throw new NotFoundException("Жанр с id " + id + " не найден");
+        }
+        return genresById[id];
+    }
+
+    public List<Mpa> getAllMpa() {
+        return snapshot.mpaRatings();
+    }
+
+    public Mpa getMpa(int id) {
+        Mpa[] mpaById = snapshot.mpaById();
+        if (id < 0 || id >= mpaById.length || mpaById[id] == null) {
+            throw new NotFoundException("Рейтинг MPA с id " + id + " не найден");
+        }
+        return mpaById[id];
+    }
+
+    private record Snapshot(List<Genre> genres, Genre[] genresById, List<Mpa> mpaRatings, Mpa[] mpaById,
+                            String version) {
+    }
+}
@@ -0,0 +1,245 @@
+package ru.yandex.practicum.filmorate.storage.user;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Граф дружбы в памяти: для каждого пользователя - отсортированный массив id друзей.
+ * Массивы не изменяются после публикации, изменение заменяет массив целиком,
+ * поэтому чтение идёт без блокировок и без обращения к таблице friendships.
+ */
+@Component
+public class FriendGraph {
+    private static final int[] NO_FRIENDS = new int[0];
+
+    private final ConcurrentHashMap<Integer, int[]> friendsByUser = new ConcurrentHashMap<>();
+    private final AtomicInteger maxUserId = new AtomicInteger();
+
+    public void add(int userId, int friendId) {
+        maxUserId.accumulateAndGet(Math.max(userId, friendId), Math::max);
+        friendsByUser.compute(userId, (id, friends) -> insert(friends == null ? NO_FRIENDS : friends, friendId));
+    }
+
+    public void remove(int userId, int friendId) {
+        friendsByUser.computeIfPresent(userId, (id, friends) -> delete(friends, friendId));
+    }
+
+    public void removeUser(int userId) {
+        friendsByUser.remove(userId);
+        friendsByUser.replaceAll((id, friends) -> delete(friends, userId));
+    }
+
+    public int[] getFriends(int userId) {
+        return friendsByUser.getOrDefault(userId, NO_FRIENDS);
+    }
+
+    /**
+     * Друзья друзей, которые ещё не в друзьях у пользователя, по убыванию числа общих друзей,
+     * при равенстве - по id.
+     */
+    public List<Integer> suggest(int userId, int limit) {
+        int[] friends = getFriends(userId);
+        long visits = 0;
+        for (int friendId : friends) {
+            visits += getFriends(friendId).length;
+        }
+
+        // при плотных id массив счётчиков не больше объёма обхода, иначе - хеш-таблица
+        int idBound = maxUserId.get() + 1;
+        Counter mutualFriends = idBound <= visits * 8
+                ? new DenseCounter(idBound)
+                : new HashCounter((int) Math.min(visits, 1 << 20));
+        mutualFriends.exclude(userId);
+        for (int friendId : friends) {
+            mutualFriends.exclude(friendId);
+        }
+        for (int friendId : friends) {
+            for (int candidate : getFriends(friendId)) {
+                mutualFriends.increment(candidate);
+            }
+        }
+
+        // ключ: число общих друзей в старших битах, инвертированный id в младших
+        PriorityQueue<Long> best = new PriorityQueue<>(limit + 1);
+        mutualFriends.forEach((candidate, count) -> {
+            long key = ((long) count << 32) | (Integer.MAX_VALUE - candidate);
+            if (best.size() < limit) {
+                best.add(key);
+            } else if (key > best.peek()) {
+                best.poll();
+                best.add(key);
+            }
+        });
+
+        List<Integer> suggestions = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            suggestions.add(Integer.MAX_VALUE - (int) (best.poll() & 0xFFFFFFFFL));
+        }
+        return suggestions.reversed();
+    }
+
+    public void rebuild(Map<Integer, int[]> friendsById) {
+        friendsByUser.clear();
+        friendsById.forEach((userId, friends) -> {
+            int[] sorted = friends.clone();
+            Arrays.sort(sorted);
+            int maxId = sorted.length == 0 ? userId : Math.max(userId, sorted[sorted.length - 1]);
+            maxUserId.accumulateAndGet(maxId, Math::max);
+            friendsByUser.put(userId, sorted);
+        });
+    }
+
+    private static int[] insert(int[] friends, int friendId) {
+        int position = Arrays.binarySearch(friends, friendId);
+        if (position >= 0) {
+            return friends;
+        }
+        position = -position - 1;
+        int[] updated = new int[friends.length + 1];
+        System.arraycopy(friends, 0, updated, 0, position);
+        updated[position] = friendId;
+        System.arraycopy(friends, position, updated, position + 1, friends.length - position);
+        return updated;
+    }
+
+    private static int[] delete(int[] friends, int friendId) {
+        int position = Arrays.binarySearch(friends, friendId);
+        if (position < 0) {
+            return friends;
+        }
+        int[] updated = new int[friends.length - 1];
+        System.arraycopy(friends, 0, updated, 0, position);
+        System.arraycopy(friends, position + 1, updated, position, friends.length - position - 1);
+        return updated;
+    }
+
+    /**
+     * Счётчик общих друзей. Исключённые ключи (сам пользователь и его друзья)
+     * получают большое отрицательное значение и не попадают в обход.
+     */
+    private interface Counter {
+        void exclude(int key);
+
+        void increment(int key);
+
+        void forEach(IntIntConsumer action);
+    }
+
+    private static final class DenseCounter implements Counter {
+        private final int[] counts;
+
+        DenseCounter(int idBound) {
+            counts = new int[idBound];
+        }
+
+        @Override
+        public void exclude(int key) {
+            if (key < counts.length) {
+                counts[key] = Integer.MIN_VALUE;
+            }
+        }
+
+        @Override
+        public void increment(int key) {
+            // id, добавленный после начала подсчёта, пропускаем
+            if (key < counts.length) {
+                counts[key]++;
+            }
+        }
+
+        @Override
+        public void forEach(IntIntConsumer action) {
+            for (int key = 0; key < counts.length; key++) {
+                if (counts[key] > 0) {
+                    action.accept(key, counts[key]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Хеш-таблица по положительным int-ключам с открытой адресацией, без упаковки в Integer.
+     */
+    private static final class HashCounter implements Counter {
+        private int[] keys;
+        private int[] counts;
+        private int size;
+
+        HashCounter(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(16, expectedSize) * 2 - 1) << 1;
+            keys = new int[capacity];
+            counts = new int[capacity];
+        }
+
+        @Override
+        public void exclude(int key) {
+            counts[slot(key)] = Integer.MIN_VALUE;
+        }
+
+        @Override
+        public void increment(int key) {
+            counts[slot(key)]++;
+        }
+
+        @Override
+        public void forEach(IntIntConsumer action) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0 && counts[i] > 0) {
+                    action.accept(keys[i], counts[i]);
+                }
+            }
+        }
+
+        private int slot(int key) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == 0) {
+                if ((size + 1) * 2 > keys.length) {
+                    grow();
+                    return slot(key);
+                }
+                keys[slot] = key;
+                size++;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = new int[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != 0) {
+                    int slot = mix(oldKeys[i]) & mask;
+                    while (keys[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    @FunctionalInterface
+    private interface IntIntConsumer {
+        void accept(int key, int value);
+    }
+}
@@ -1,27 +1,62 @@
 package ru.yandex.practicum.filmorate.storage.user;
 
+import io.micrometer.core.annotation.Timed;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.config.CacheConfig;
+import ru.yandex.practicum.filmorate.config.MetricsConfig;
 import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.EventOperation;
+import ru.yandex.practicum.filmorate.model.EventType;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.AfterCommit;
+import ru.yandex.practicum.filmorate.storage.event.EventStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.film.PopularityIndex;
 
 import java.sql.*;
 import java.sql.Date;
 import java.util.*;
+import java.util.function.Consumer;
 
-
+@Slf4j
+@Timed(value = MetricsConfig.DB_TIMER, histogram = true)
 @Repository
 public class UserDbStorage implements UserStorage {
+    private static final int EXPORT_FETCH_SIZE = 1000;
+    private static final int BATCH_SIZE = 1000;
+    private static final int IN_LIST_BATCH_SIZE = 500;
+    private static final String INSERT_USER_SQL = "INSERT INTO users (email, login, name, birthday) " +
+            "VALUES (?, ?, ?, ?)";
+
     private final JdbcTemplate jdbcTemplate;
+    private final PopularityIndex popularityIndex;
+    private final FriendGraph friendGraph;
+    private final LikeIndex likeIndex;
+    private final EventStorage eventStorage;
 
     @Autowired
-    public UserDbStorage(JdbcTemplate jdbcTemplate) {
+    public UserDbStorage(JdbcTemplate jdbcTemplate, PopularityIndex popularityIndex, FriendGraph friendGraph,
+                         LikeIndex likeIndex, EventStorage eventStorage) {
         this.jdbcTemplate = jdbcTemplate;
+        this.popularityIndex = popularityIndex;
+        this.friendGraph = friendGraph;
+        this.likeIndex = likeIndex;
+        this.eventStorage = eventStorage;
     }
 
     private final RowMapper<User> userRowMapper = (rs, rowNum) -> {
@@ -31,6 +66,7 @@ public class UserDbStorage implements UserStorage {
         user.setLogin(rs.getString("login"));
         user.setName(rs.getString("name"));
         user.setBirthday(rs.getDate("birthday").toLocalDate());
+        user.setVersion(rs.getLong("version"));
         return user;
     };
 
@@ -41,14 +77,10 @@ public class UserDbStorage implements UserStorage {
 
     @Override
     public User create(User user) {
-        String sql = "INSERT INTO users (email, login, name, birthday) VALUES (?, ?, ?, ?)";
         KeyHolder keyHolder = new GeneratedKeyHolder();
         jdbcTemplate.update(connection -> {
-            PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-            stmt.setString(1, user.getEmail());
-            stmt.setString(2, user.getLogin());
-            stmt.setString(3, user.getName());
-            stmt.setDate(4, Date.valueOf(user.getBirthday()));
+            PreparedStatement stmt = connection.prepareStatement(INSERT_USER_SQL, Statement.RETURN_GENERATED_KEYS);
+            setUserParameters(stmt, user);
             return stmt;
         }, keyHolder);
         user.setId(Objects.requireNonNull(keyHolder.getKey()).intValue());
@@ -56,18 +88,52 @@ public class UserDbStorage implements UserStorage {
     }
 
     @Override
+    @Transactional
+    public List<User> createAll(List<User> users) {
+        for (int from = 0; from < users.size(); from += BATCH_SIZE) {
+            List<User> chunk = users.subList(from, Math.min(from + BATCH_SIZE, users.size()));
+            KeyHolder keyHolder = new GeneratedKeyHolder();
+
+            jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(INSERT_USER_SQL,
+                    new String[]{"user_id"}), new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement stmt, int i) throws SQLException {
+                    setUserParameters(stmt, chunk.get(i));
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return chunk.size();
+                }
+            }, keyHolder);
+
+            List<Map<String, Object>> keys = keyHolder.getKeyList();
+            for (int i = 0; i < chunk.size(); i++) {
+                chunk.get(i).setId(((Number) keys.get(i).values().iterator().next()).intValue());
+            }
+        }
+        return users;
+    }
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.USERS_CACHE, key = "#user.id")
     public User update(User user) {
-        String sql = "UPDATE users SET email = ?, login = ?, name = ?, birthday = ? WHERE user_id = ?";
-        jdbcTemplate.update(sql,
+        String sql = "UPDATE users SET email = ?, login = ?, name = ?, birthday = ?, version = version + 1 " +
+                "WHERE user_id = ?";
+        int updated = jdbcTemplate.update(sql,
                 user.getEmail(),
                 user.getLogin(),
                 user.getName(),
                 user.getBirthday(),
                 user.getId());
-        return getById(user.getId());
+        if (updated == 0) {
+            throw new NotFoundException("Пользователь с id " + user.getId() + " не найден");
+        }
+        return user;
     }
 
     @Override
+    @Cacheable(cacheNames = CacheConfig.USERS_CACHE, key = "#id")
     public User getById(int id) {
         String sql = "SELECT * FROM users WHERE user_id = ?";
         try {
@@ -77,6 +143,16 @@ public class UserDbStorage implements UserStorage {
         }
     }
 
+    @Override
+    public long getVersion(int id) {
+        String sql = "SELECT version FROM users WHERE user_id = ?";
+        try {
+            return jdbcTemplate.queryForObject(sql, Long.class, id);
+        } catch (EmptyResultDataAccessException e) {
+            throw new NotFoundException("Пользователь с id " + id + " не найден");
+        }
+    }
+
     @Override
     public List<User> getAll() {
         String sql = "SELECT * FROM users";
@@ -84,21 +160,91 @@ public class UserDbStorage implements UserStorage {
     }
 
     @Override
+    public List<User> getPage(int afterId, int limit) {
+        String sql = "SELECT * FROM users WHERE user_id > ? ORDER BY user_id LIMIT ?";
+        return jdbcTemplate.query(sql, userRowMapper, afterId, limit);
+    }
+
+    @Override
+    public void exportAll(Consumer<User> action) {
+        String sql = "SELECT * FROM users ORDER BY user_id";
+        jdbcTemplate.query(connection -> {
+            PreparedStatement stmt = connection.prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(EXPORT_FETCH_SIZE);
+            return stmt;
+        }, rs -> {
+            action.accept(userRowMapper.mapRow(rs, rs.getRow()));
+        });
+    }
+
+    @Override
+    public boolean exists(int id) {
+        String sql = "SELECT EXISTS (SELECT 1 FROM users WHERE user_id = ?)";
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject(sql, Boolean.class, id));
+    }
+
+    @Override
+    public boolean existAll(int... ids) {
+        Object[] distinctIds = Arrays.stream(ids).distinct().boxed().toArray();
+        String sql = "SELECT COUNT(*) FROM users WHERE user_id IN (" +
+                String.join(", ", Collections.nCopies(distinctIds.length, "?")) + ")";
+        Integer found = jdbcTemplate.queryForObject(sql, Integer.class, distinctIds);
+        return found != null && found == distinctIds.length;
+    }
+
+    @Override
+    @Transactional
+    @CacheEvict(cacheNames = CacheConfig.USERS_CACHE, key = "#id")
     public void delete(int id) {
+        // лайки пользователя удалятся каскадно, поэтому счётчики фильмов уменьшаем заранее
+        List<Integer> likedFilms = jdbcTemplate.queryForList(
+                "SELECT film_id FROM likes WHERE user_id = ?", Integer.class, id);
+        jdbcTemplate.update("UPDATE films SET likes_count = likes_count - 1, version = version + 1 " +
+                "WHERE film_id IN (SELECT film_id FROM likes WHERE user_id = ?)", id);
+
         String sql = "DELETE FROM users WHERE user_id = ?";
         jdbcTemplate.update(sql, id);
+        AfterCommit.run(() -> {
+            likedFilms.forEach(filmId -> popularityIndex.adjust(filmId, -1));
+            friendGraph.removeUser(id);
+            likeIndex.removeUser(id);
+        });
     }
 
     @Override
+    @Transactional
     public void addFriend(int userId, int friendId) {
-        String sql = "MERGE INTO friendships (user_id, friend_id) VALUES (?, ?)";
-        jdbcTemplate.update(sql, userId, friendId);
+        String sql = "INSERT INTO friendships (user_id, friend_id) SELECT ?, ? " +
+                "WHERE NOT EXISTS (SELECT 1 FROM friendships WHERE user_id = ? AND friend_id = ?)";
+        int inserted;
+        try {
+            inserted = jdbcTemplate.update(sql, userId, friendId, userId, friendId);
+        } catch (DuplicateKeyException e) {
+            // параллельный запрос добавил ту же дружбу между проверкой и вставкой
+            inserted = 0;
+        }
+        if (inserted > 0) {
+            eventStorage.add(Event.of(userId, EventType.FRIEND, EventOperation.ADD, friendId));
+        }
+        AfterCommit.run(() -> friendGraph.add(userId, friendId));
     }
 
     @Override
-    public void removeFriend(int userId, int friendId) {
+    @Transactional
+    public boolean removeFriend(int userId, int friendId) {
         String sql = "DELETE FROM friendships WHERE user_id=? AND friend_id=?";
-        jdbcTemplate.update(sql, userId, friendId);
+        boolean removed = jdbcTemplate.update(sql, userId, friendId) > 0;
+        if (removed) {
+            AfterCommit.run(() -> friendGraph.remove(userId, friendId));
+            eventStorage.add(Event.of(userId, EventType.FRIEND, EventOperation.REMOVE, friendId));
+        }
+        return removed;
+    }
+
+    @Override
+    public int[] getFriendIds(int userId) {
+        return friendGraph.getFriends(userId);
     }
 
     @Override
@@ -114,8 +260,68 @@ public class UserDbStorage implements UserStorage {
         String sql = "SELECT u.* FROM users u " +
                 "JOIN friendships f1 ON u.user_id = f1.friend_id " +
                 "JOIN friendships f2 ON u.user_id = f2.friend_id " +
-                "WHERE f1.user_id=? AND f2.user_id=?";
+                "WHERE f1.user_id=? AND f2.user_id=? " +
+                "ORDER BY u.user_id";
         return jdbcTemplate.query(sql, userRowMapper, userId, otherId);
     }
-}
 
+    @Override
+    public List<User> getFriendSuggestions(int userId, int limit) {
+        return getByIds(friendGraph.suggest(userId, limit));
+    }
+
+    /**
+     * Строит граф дружбы по таблице friendships. Строки читаются упорядоченными по user_id,
+     * так что друзья каждого пользователя собираются в один массив за один проход.
+     */
+    @PostConstruct
+    public void rebuildFriendGraph() {
+        Map<Integer, int[]> friendsById = new HashMap<>();
+        String sql = "SELECT user_id, friend_id FROM friendships ORDER BY user_id, friend_id";
+        jdbcTemplate.query(sql, (ResultSetExtractor<Void>) rs -> {
+            int userId = 0;
+            int count = 0;
+            int[] buffer = new int[16];
+            while (rs.next()) {
+                int nextUserId = rs.getInt("user_id");
+                if (nextUserId != userId && count > 0) {
+                    friendsById.put(userId, Arrays.copyOf(buffer, count));
+                    count = 0;
+                }
+                userId = nextUserId;
+                if (count == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, count * 2);
+                }
+                buffer[count++] = rs.getInt("friend_id");
+            }
+            if (count > 0) {
+                friendsById.put(userId, Arrays.copyOf(buffer, count));
+            }
+            return null;
+        });
+        friendGraph.rebuild(friendsById);
+        log.info("Граф дружбы построен для {} пользователей", friendsById.size());
+    }
+
+    private List<User> getByIds(List<Integer> ids) {
+        Map<Integer, User> usersById = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += IN_LIST_BATCH_SIZE) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + IN_LIST_BATCH_SIZE, ids.size()));
+            String sql = "SELECT * FROM users WHERE user_id IN (" +
+                    String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+            jdbcTemplate.query(sql, userRowMapper, chunk.toArray())
+                    .forEach(user -> usersById.put(user.getId(), user));
+        }
+        return ids.stream()
+                .map(usersById::get)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    private static void setUserParameters(PreparedStatement stmt, User user) throws SQLException {
+        stmt.setString(1, user.getEmail());
+        stmt.setString(2, user.getLogin());
+        stmt.setString(3, user.getName());
+        stmt.setDate(4, Date.valueOf(user.getBirthday()));
+    }
+}
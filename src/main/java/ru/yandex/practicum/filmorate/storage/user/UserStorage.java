@@ -4,27 +4,47 @@ import org.springframework.jdbc.core.RowMapper;
 import ru.yandex.practicum.filmorate.model.User;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface UserStorage {
 
     User create(User user);
 
+    List<User> createAll(List<User> users);
+
     User update(User user);
 
     User getById(int id);
 
+    /**
+     * Версия строки пользователя, которая растёт при каждом изменении его данных.
+     */
+    long getVersion(int id);
+
     List<User> getAll();
 
+    List<User> getPage(int afterId, int limit);
+
+    void exportAll(Consumer<User> action);
+
+    boolean exists(int id);
+
+    boolean existAll(int... ids);
+
     void delete(int id);
 
-    void removeFriend(int userId, int friendId);
+    boolean removeFriend(int userId, int friendId);
 
     void addFriend(int userId, int friendId);
 
     List<User> getFriends(int userId);
 
+    int[] getFriendIds(int userId);
+
     List<User> getCommonFriends(int userId, int otherId);
 
+    List<User> getFriendSuggestions(int userId, int limit);
+
     RowMapper<User> getUserRowMapper();
 
 
@@ -1,22 +0,0 @@
-DELETE FROM film_genres;
-DELETE FROM likes;
-DELETE FROM friendships;
-DELETE FROM films;
-DELETE FROM users;
-DELETE FROM genres;
-DELETE FROM mpa_ratings;
-
-INSERT INTO mpa_ratings (mpa_id, name) VALUES
-(1, 'G'),
-(2, 'PG'),
-(3, 'PG-13'),
-(4, 'R'),
-(5, 'NC-17');
-
-INSERT INTO genres (genre_id, name) VALUES
-(1, 'Комедия'),
-(2, 'Драма'),
-(3, 'Мультфильм'),
-(4, 'Триллер'),
-(5, 'Документальный'),
-(6, 'Боевик');
@@ -14,9 +14,12 @@ CREATE TABLE IF NOT EXISTS films (
     description VARCHAR(200),
     release_date DATE,
     duration INTEGER,
-    mpa_id INTEGER REFERENCES mpa_ratings (mpa_id)
+    mpa_id INTEGER REFERENCES mpa_ratings (mpa_id),
+    likes_count INTEGER NOT NULL DEFAULT 0
 );
 
+ALTER TABLE films ADD COLUMN IF NOT EXISTS likes_count INTEGER NOT NULL DEFAULT 0;
+
 CREATE TABLE IF NOT EXISTS film_genres (
     film_id INTEGER REFERENCES films (film_id) ON DELETE CASCADE,
     genre_id INTEGER REFERENCES genres (genre_id),
@@ -41,4 +44,10 @@ CREATE TABLE IF NOT EXISTS likes (
     film_id INTEGER REFERENCES films (film_id) ON DELETE CASCADE,
     user_id INTEGER REFERENCES users (user_id) ON DELETE CASCADE,
     PRIMARY KEY (film_id, user_id)
-);
\ No newline at end of file
+);
+
+CREATE INDEX IF NOT EXISTS idx_films_likes_count ON films (likes_count DESC, film_id);
+CREATE INDEX IF NOT EXISTS idx_film_genres_genre ON film_genres (genre_id, film_id);
+CREATE INDEX IF NOT EXISTS idx_friendships_friend ON friendships (friend_id, user_id);
+CREATE INDEX IF NOT EXISTS idx_likes_user ON likes (user_id, film_id);
+
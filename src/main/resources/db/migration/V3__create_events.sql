@@ -0,0 +1,12 @@
+-- Журнал действий пользователей для ленты событий: строки только добавляются.
+-- user_id пуст у событий каталога (добавление фильма), они попадают в ленту каждого пользователя.
+CREATE TABLE IF NOT EXISTS events (
+    event_id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    user_id INTEGER REFERENCES users (user_id) ON DELETE CASCADE,
+    event_type VARCHAR(10) NOT NULL,
+    operation VARCHAR(10) NOT NULL,
+    entity_id INTEGER NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_events_user ON events (user_id, event_id DESC);
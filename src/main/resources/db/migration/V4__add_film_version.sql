@@ -0,0 +1,2 @@
+-- Версия строки фильма для ETag: растёт при каждом изменении фильма, его жанров и лайков.
+ALTER TABLE films ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,2 @@
+-- Версия строки пользователя для ETag: растёт при каждом изменении его данных.
+ALTER TABLE users ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
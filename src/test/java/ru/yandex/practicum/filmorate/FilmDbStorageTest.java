@@ -1,37 +1,83 @@
 package ru.yandex.practicum.filmorate;
 
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.test.context.jdbc.Sql;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.config.LikeWriteBehindProperties;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
 import ru.yandex.practicum.filmorate.model.Film;
 import ru.yandex.practicum.filmorate.model.Genre;
 import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.event.EventDbStorage;
 import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
-
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.FilmStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.film.LikeWriteBehind;
+import ru.yandex.practicum.filmorate.storage.film.PopularityIndex;
+
+import java.sql.Date;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 @JdbcTest
 @AutoConfigureTestDatabase
-@Sql(scripts = {"/schema.sql", "/data.sql"})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
 class FilmDbStorageTest {
 
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     private FilmDbStorage filmDbStorage;
+    private PopularityIndex filmPopularity;
+    private FilmSearchIndex filmSearch;
+    private LikeIndex likeIndex;
+    private EventDbStorage eventStorage;
 
     @BeforeEach
     void setUp() {
-        filmDbStorage = new FilmDbStorage(jdbcTemplate);
+        likeIndex = new LikeIndex();
+        eventStorage = new EventDbStorage(jdbcTemplate);
+        filmPopularity = new PopularityIndex();
+        filmSearch = new FilmSearchIndex(filmPopularity);
+        filmDbStorage = new FilmDbStorage(jdbcTemplate, transactionManager, filmPopularity, likeIndex, filmSearch,
+                eventStorage, Optional.empty());
+
+        jdbcTemplate.update("DELETE FROM events");
+        jdbcTemplate.update("DELETE FROM friendships");
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM film_genres");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
     }
 
     @Test
@@ -73,6 +119,25 @@ class FilmDbStorageTest {
 
     }
 
+    @Test
+    void testCreateAllAssignsIdsInOrder() {
+        List<Film> films = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Film film = createTestFilm();
+            film.setName("Batch Film " + i);
+            films.add(film);
+        }
+
+        List<Film> createdFilms = filmDbStorage.createAll(films);
+
+        for (int i = 0; i < createdFilms.size(); i++) {
+            Film retrievedFilm = filmDbStorage.getById(createdFilms.get(i).getId());
+            assertEquals("Batch Film " + i, retrievedFilm.getName());
+            assertEquals(2, retrievedFilm.getGenres().size());
+        }
+        assertEquals(5, filmDbStorage.getPopular(10, null, null).size());
+    }
+
     @Test
     void testGetFilmById() {
         Film testFilm = createTestFilm();
@@ -117,6 +182,41 @@ class FilmDbStorageTest {
         assertTrue(updatedFilm.getGenres().stream().anyMatch(g -> g.getId() == 3));
     }
 
+    @Test
+    void testUpdateWritesOnlyChangedGenres() {
+        Film createdFilm = filmDbStorage.create(createTestFilm());
+        Set<Genre> genres = new TreeSet<>((g1, g2) -> Integer.compare(g1.getId(), g2.getId()));
+        genres.add(new Genre(2, "Драма"));
+        genres.add(new Genre(3, "Мультфильм"));
+        createdFilm.setGenres(genres);
+
+        jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+        jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+        filmDbStorage.update(createdFilm);
+        Long genreWrites = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(execution_count), 0) " +
+                "FROM information_schema.query_statistics " +
+                "WHERE LOWER(sql_statement) LIKE 'insert into film_genres%' " +
+                "OR LOWER(sql_statement) LIKE 'delete from film_genres%'", Long.class);
+        jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+
+        assertEquals(2, genreWrites);
+        assertEquals(List.of(2, 3), filmDbStorage.getById(createdFilm.getId()).getGenres().stream()
+                .map(Genre::getId).toList());
+    }
+
+    @Test
+    void testAddAndRemoveSingleGenre() {
+        Film createdFilm = filmDbStorage.create(createTestFilm());
+
+        filmDbStorage.addGenre(createdFilm.getId(), 6);
+        filmDbStorage.addGenre(createdFilm.getId(), 6);
+        assertTrue(filmDbStorage.removeGenre(createdFilm.getId(), 1));
+        assertFalse(filmDbStorage.removeGenre(createdFilm.getId(), 1));
+
+        assertEquals(List.of(2, 6), filmDbStorage.getById(createdFilm.getId()).getGenres().stream()
+                .map(Genre::getId).toList());
+    }
+
     @Test
     void testGetAllFilms() {
         Film film1 = createTestFilm();
@@ -140,6 +240,38 @@ class FilmDbStorageTest {
         assertTrue(allFilms.stream().anyMatch(f -> f.getId() == createdFilm2.getId()));
     }
 
+    @Test
+    void testGetPageAfterId() {
+        Film createdFilm1 = filmDbStorage.create(createTestFilm());
+        Film createdFilm2 = filmDbStorage.create(createTestFilm());
+        Film createdFilm3 = filmDbStorage.create(createTestFilm());
+
+        List<Film> firstPage = filmDbStorage.getPage(0, 2);
+        List<Film> secondPage = filmDbStorage.getPage(firstPage.get(1).getId(), 2);
+
+        assertEquals(List.of(createdFilm1.getId(), createdFilm2.getId()),
+                firstPage.stream().map(Film::getId).toList());
+        assertEquals(List.of(createdFilm3.getId()), secondPage.stream().map(Film::getId).toList());
+        assertEquals(2, secondPage.get(0).getGenres().size());
+    }
+
+    @Test
+    void testExportAllFoldsGenresIntoFilms() {
+        Film createdFilm1 = filmDbStorage.create(createTestFilm());
+        Film film2 = createTestFilm();
+        film2.setGenres(Set.of());
+        Film createdFilm2 = filmDbStorage.create(film2);
+
+        List<Film> exported = new ArrayList<>();
+        filmDbStorage.exportAll(exported::add);
+
+        assertEquals(List.of(createdFilm1.getId(), createdFilm2.getId()),
+                exported.stream().map(Film::getId).toList());
+        assertEquals(2, exported.get(0).getGenres().size());
+        assertTrue(exported.get(1).getGenres().isEmpty());
+        assertEquals("G", exported.get(0).getMpa().getName());
+    }
+
     @Test
     void testDeleteFilm() {
         Film testFilm = createTestFilm();
@@ -188,13 +320,301 @@ class FilmDbStorageTest {
         filmDbStorage.addLike(createdFilm2.getId(), user2Id);
         filmDbStorage.addLike(createdFilm1.getId(), user1Id);
 
-        List<Film> popularFilms = filmDbStorage.getPopular(2);
+        List<Film> popularFilms = filmDbStorage.getPopular(2, null, null);
 
         assertEquals(2, popularFilms.size());
         assertEquals(createdFilm2.getId(), popularFilms.get(0).getId());
         assertEquals(createdFilm1.getId(), popularFilms.get(1).getId());
     }
 
+    @Test
+    void testRemoveLikeUpdatesPopularFilms() {
+        Film createdFilm1 = filmDbStorage.create(createTestFilm());
+        Film createdFilm2 = filmDbStorage.create(createTestFilm());
+        int userId = createUser("user1");
+
+        filmDbStorage.addLike(createdFilm2.getId(), userId);
+        filmDbStorage.addLike(createdFilm2.getId(), userId);
+        assertEquals(createdFilm2.getId(), filmDbStorage.getPopular(1, null, null).get(0).getId());
+        assertEquals(1, getLikesCount(createdFilm2.getId()));
+
+        filmDbStorage.removeLike(createdFilm2.getId(), userId);
+
+        assertEquals(0, getLikesCount(createdFilm2.getId()));
+        assertEquals(List.of(createdFilm1.getId(), createdFilm2.getId()),
+                filmDbStorage.getPopular(2, null, null).stream().map(Film::getId).toList());
+    }
+
+    @Test
+    void testRebuildPopularityIndexRepairsLikesCount() {
+        Film createdFilm1 = filmDbStorage.create(createTestFilm());
+        Film createdFilm2 = filmDbStorage.create(createTestFilm());
+        int userId = createUser("user1");
+        jdbcTemplate.update("INSERT INTO likes (film_id, user_id) VALUES (?, ?)", createdFilm2.getId(), userId);
+        jdbcTemplate.update("UPDATE films SET likes_count = 5 WHERE film_id = ?", createdFilm1.getId());
+
+        PopularityIndex popularityIndex = new PopularityIndex();
+        FilmDbStorage restartedStorage = new FilmDbStorage(jdbcTemplate, transactionManager, popularityIndex,
+                new LikeIndex(), new FilmSearchIndex(popularityIndex), eventStorage, Optional.empty());
+        restartedStorage.rebuildPopularityIndex();
+
+        assertEquals(0, getLikesCount(createdFilm1.getId()));
+        assertEquals(1, getLikesCount(createdFilm2.getId()));
+        assertEquals(List.of(createdFilm2.getId(), createdFilm1.getId()),
+                restartedStorage.getPopular(10, null, null).stream().map(Film::getId).toList());
+    }
+
+    @Test
+    void testWriteBehindFlushOutlivesCallerRollback() {
+        PopularityIndex popularityIndex = new PopularityIndex();
+        LikeWriteBehindProperties properties = new LikeWriteBehindProperties();
+        properties.setCapacity(1);
+        LikeWriteBehind writeBehind = new LikeWriteBehind(jdbcTemplate, transactionManager, popularityIndex,
+                likeIndex, eventStorage, properties);
+        FilmDbStorage storage = new FilmDbStorage(jdbcTemplate, transactionManager, popularityIndex, likeIndex,
+                new FilmSearchIndex(popularityIndex), eventStorage, Optional.of(writeBehind));
+        Film film = storage.create(createTestFilm());
+        int user1Id = createUser("user1");
+        int user2Id = createUser("user2");
+        storage.rebuildPopularityIndex();
+
+        storage.addLike(film.getId(), user1Id);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            // очередь полна, а фоновый поток не запущен: запрос сам записывает лайк первого пользователя
+            storage.addLike(film.getId(), user2Id);
+            status.setRollbackOnly();
+        });
+
+        assertEquals(1, getLikesCount(film.getId()));
+        assertTrue(likeIndex.isLiked(user1Id, film.getId()));
+        assertEquals(1, writeBehind.getPending());
+    }
+
+    @Test
+    void testWriteBehindFullQueueDoesNotExhaustPool() throws Exception {
+        int likers = 16;
+        HikariDataSource pool = new HikariDataSource();
+        pool.setJdbcUrl("jdbc:h2:mem:like-pool-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        pool.setMaximumPoolSize(2);
+        pool.setConnectionTimeout(1000);
+        ExecutorService executor = Executors.newFixedThreadPool(likers);
+        try {
+            Flyway.configure().dataSource(pool).load().migrate();
+            JdbcTemplate poolJdbc = new JdbcTemplate(pool);
+            DataSourceTransactionManager poolTransactions = new DataSourceTransactionManager(pool);
+            PopularityIndex popularityIndex = new PopularityIndex();
+            LikeIndex poolLikes = new LikeIndex();
+            EventDbStorage poolEvents = new EventDbStorage(poolJdbc);
+            LikeWriteBehindProperties properties = new LikeWriteBehindProperties();
+            properties.setCapacity(1);
+            properties.setBatchSize(1);
+            properties.setFlushInterval(Duration.ofMillis(50));
+            LikeWriteBehind writeBehind = new LikeWriteBehind(poolJdbc, poolTransactions, popularityIndex,
+                    poolLikes, poolEvents, properties);
+            FilmDbStorage target = new FilmDbStorage(poolJdbc, poolTransactions, popularityIndex, poolLikes,
+                    new FilmSearchIndex(popularityIndex), poolEvents, Optional.of(writeBehind));
+            // аннотации @Transactional применяются так же, как в приложении
+            ProxyFactory proxy = new ProxyFactory(target);
+            proxy.addAdvice(new TransactionInterceptor(poolTransactions, new AnnotationTransactionAttributeSource()));
+            FilmStorage storage = (FilmStorage) proxy.getProxy();
+
+            int filmId = storage.create(createTestFilm()).getId();
+            for (int i = 0; i < likers; i++) {
+                poolJdbc.update("INSERT INTO users (email, login, name, birthday) VALUES (?, ?, ?, ?)",
+                        "liker" + i + "@mail.com", "liker" + i, "liker" + i, Date.valueOf(LocalDate.of(1990, 1, 1)));
+            }
+            List<Integer> userIds = poolJdbc.queryForList("SELECT user_id FROM users", Integer.class);
+            target.rebuildPopularityIndex();
+            writeBehind.start();
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (int userId : userIds) {
+                futures.add(executor.submit(() -> storage.addLike(filmId, userId)));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            writeBehind.stop();
+
+            assertEquals(likers, poolJdbc.queryForObject("SELECT COUNT(*) FROM likes", Integer.class));
+            assertEquals(likers, poolJdbc.queryForObject(
+                    "SELECT likes_count FROM films WHERE film_id = ?", Integer.class, filmId));
+        } finally {
+            executor.shutdownNow();
+            pool.close();
+        }
+    }
+
+    @Test
+    void testWriteBehindLikesCoalesceUntilFlush() {
+        PopularityIndex popularityIndex = new PopularityIndex();
+        LikeWriteBehind writeBehind = new LikeWriteBehind(jdbcTemplate, transactionManager, popularityIndex,
+                likeIndex, eventStorage, new LikeWriteBehindProperties());
+        FilmDbStorage storage = new FilmDbStorage(jdbcTemplate, transactionManager, popularityIndex, likeIndex,
+                new FilmSearchIndex(popularityIndex), eventStorage, Optional.of(writeBehind));
+        Film first = storage.create(createTestFilm());
+        Film second = storage.create(createTestFilm());
+        int user1Id = createUser("user1");
+        int user2Id = createUser("user2");
+        storage.rebuildPopularityIndex();
+
+        storage.addLike(second.getId(), user1Id);
+        storage.addLike(second.getId(), user1Id);
+        storage.addLike(second.getId(), user2Id);
+        storage.addLike(first.getId(), user1Id);
+        assertTrue(storage.removeLike(first.getId(), user1Id));
+        assertFalse(storage.removeLike(first.getId(), user2Id));
+        assertThrows(NotFoundException.class, () -> storage.addLike(first.getId(), user2Id + 100));
+
+        assertEquals(List.of(second.getId(), first.getId()),
+                storage.getPopular(2, null, null).stream().map(Film::getId).toList());
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM likes", Integer.class));
+
+        assertEquals(2, writeBehind.flush());
+        assertEquals(2, getLikesCount(second.getId()));
+        assertEquals(0, getLikesCount(first.getId()));
+        assertTrue(likeIndex.isLiked(user2Id, second.getId()));
+
+        assertTrue(storage.removeLike(second.getId(), user2Id));
+        storage.addLike(second.getId(), user2Id);
+        assertEquals(0, writeBehind.flush());
+        assertEquals(0, writeBehind.getPending());
+        assertEquals(2, getLikesCount(second.getId()));
+    }
+
+    @Test
+    void testFilteredPopularMatchesDatabase() {
+        Film comedy2020 = filmDbStorage.create(createTestFilm());
+        Film action2022 = createTestFilm();
+        action2022.setReleaseDate(LocalDate.of(2022, 3, 3));
+        action2022.setGenres(Set.of(new Genre(6, "Боевик")));
+        action2022 = filmDbStorage.create(action2022);
+        Film drama2022 = createTestFilm();
+        drama2022.setReleaseDate(LocalDate.of(2022, 5, 5));
+        drama2022.setGenres(Set.of(new Genre(2, "Драма")));
+        drama2022 = filmDbStorage.create(drama2022);
+        int user1Id = createUser("user1");
+        int user2Id = createUser("user2");
+        filmDbStorage.rebuildPopularityIndex();
+
+        filmDbStorage.addLike(action2022.getId(), user1Id);
+        filmDbStorage.addLike(action2022.getId(), user2Id);
+        filmDbStorage.addLike(drama2022.getId(), user1Id);
+        filmDbStorage.addGenre(action2022.getId(), 1);
+        filmDbStorage.removeGenre(comedy2020.getId(), 2);
+        drama2022.setReleaseDate(LocalDate.of(2020, 7, 7));
+        filmDbStorage.update(drama2022);
+
+        assertEquals(List.of(action2022.getId(), comedy2020.getId()),
+                filmDbStorage.getPopular(10, 1, null).stream().map(Film::getId).toList());
+        assertEquals(List.of(drama2022.getId(), comedy2020.getId()),
+                filmDbStorage.getPopular(10, null, 2020).stream().map(Film::getId).toList());
+        Integer[] genres = {null, 1, 2, 6};
+        Integer[] years = {null, 2020, 2022, 1999};
+        for (Integer genreId : genres) {
+            for (Integer year : years) {
+                assertEquals(filmDbStorage.getPopularFromDb(10, genreId, year).stream().map(Film::getId).toList(),
+                        filmDbStorage.getPopular(10, genreId, year).stream().map(Film::getId).toList(),
+                        "genreId=" + genreId + ", year=" + year);
+            }
+        }
+    }
+
+    @Test
+    void testSearchRanksTitleMatchesFirst() {
+        Film winter = createTestFilm();
+        winter.setName("Ёлки зимой");
+        winter.setDescription("Новогодняя комедия");
+        winter = filmDbStorage.create(winter);
+        Film comedy = createTestFilm();
+        comedy.setName("Комедия положений");
+        comedy.setDescription("Снова про ёлки, и снова - зимой!");
+        comedy = filmDbStorage.create(comedy);
+        Set<FilmSearchIndex.Field> both = Set.of(FilmSearchIndex.Field.TITLE, FilmSearchIndex.Field.DESCRIPTION);
+
+        assertEquals(List.of(winter.getId(), comedy.getId()), searchIds("ЕЛКИ", both));
+        assertEquals(List.of(comedy.getId(), winter.getId()), searchIds("комедия", both));
+        assertEquals(List.of(winter.getId()), searchIds("елки", Set.of(FilmSearchIndex.Field.TITLE)));
+        assertEquals(List.of(comedy.getId()), searchIds("зимой снова", both));
+        assertEquals(List.of(), searchIds("ёлки лето", both));
+
+        winter.setName("Лето");
+        filmDbStorage.update(winter);
+        filmDbStorage.delete(comedy.getId());
+        assertEquals(List.of(), searchIds("ёлки", both));
+        assertEquals(List.of(winter.getId()), searchIds("лето комедия", both));
+    }
+
+    @Test
+    void testSearchOrdersEqualRelevanceByLikes() {
+        Film first = filmDbStorage.create(createTestFilm());
+        Film second = filmDbStorage.create(createTestFilm());
+        Set<FilmSearchIndex.Field> both = Set.of(FilmSearchIndex.Field.TITLE, FilmSearchIndex.Field.DESCRIPTION);
+        assertEquals(List.of(first.getId(), second.getId()), searchIds("test", both));
+
+        filmDbStorage.addLike(second.getId(), createUser("user1"));
+        assertEquals(List.of(second.getId(), first.getId()), searchIds("test", both));
+
+        PopularityIndex popularityIndex = new PopularityIndex();
+        FilmDbStorage restartedStorage = new FilmDbStorage(jdbcTemplate, transactionManager, popularityIndex,
+                new LikeIndex(), new FilmSearchIndex(popularityIndex), eventStorage, Optional.empty());
+        restartedStorage.rebuildPopularityIndex();
+        restartedStorage.rebuildSearchIndex();
+        assertEquals(List.of(second.getId()), restartedStorage.search("film", both, 1).stream()
+                .map(Film::getId).toList());
+    }
+
+    @Test
+    void testRecommendationsFromUsersWithOverlappingLikes() {
+        Film shared1 = filmDbStorage.create(createTestFilm());
+        Film shared2 = filmDbStorage.create(createTestFilm());
+        Film fromClosest = filmDbStorage.create(createTestFilm());
+        Film fromBoth = filmDbStorage.create(createTestFilm());
+        Film unrelated = filmDbStorage.create(createTestFilm());
+        int userId = createUser("user");
+        int closestId = createUser("closest");
+        int otherId = createUser("other");
+        int strangerId = createUser("stranger");
+
+        filmDbStorage.addLike(shared1.getId(), userId);
+        filmDbStorage.addLike(shared2.getId(), userId);
+        filmDbStorage.addLike(shared1.getId(), closestId);
+        filmDbStorage.addLike(shared2.getId(), closestId);
+        filmDbStorage.addLike(fromClosest.getId(), closestId);
+        filmDbStorage.addLike(fromBoth.getId(), closestId);
+        filmDbStorage.addLike(shared1.getId(), otherId);
+        filmDbStorage.addLike(fromBoth.getId(), otherId);
+        filmDbStorage.addLike(unrelated.getId(), strangerId);
+
+        assertTrue(filmDbStorage.getRecommendations(userId, 10).isEmpty());
+        likeIndex.applyPendingChanges();
+
+        assertEquals(List.of(fromBoth.getId(), fromClosest.getId()),
+                filmDbStorage.getRecommendations(userId, 10).stream().map(Film::getId).toList());
+
+        filmDbStorage.removeLike(fromBoth.getId(), closestId);
+        filmDbStorage.delete(fromClosest.getId());
+        likeIndex.applyPendingChanges();
+
+        assertEquals(List.of(fromBoth.getId()),
+                filmDbStorage.getRecommendations(userId, 10).stream().map(Film::getId).toList());
+    }
+
+    @Test
+    void testRebuildLikeIndexFromLikes() {
+        Film liked = filmDbStorage.create(createTestFilm());
+        Film recommended = filmDbStorage.create(createTestFilm());
+        int userId = createUser("user");
+        int otherId = createUser("other");
+        jdbcTemplate.update("INSERT INTO likes (film_id, user_id) VALUES (?, ?), (?, ?), (?, ?)",
+                liked.getId(), userId, liked.getId(), otherId, recommended.getId(), otherId);
+
+        filmDbStorage.rebuildLikeIndex();
+
+        assertEquals(List.of(recommended.getId()),
+                filmDbStorage.getRecommendations(userId, 10).stream().map(Film::getId).toList());
+    }
+
     @Test
     void testFilmWithSingleGenre() {
         Film film = new Film();
@@ -218,12 +638,190 @@ class FilmDbStorageTest {
         assertEquals("NC-17", retrievedFilm.getMpa().getName());
     }
 
+    @Test
+    void testGetAllLoadsGenresWithConstantQueryCount() {
+        for (int i = 0; i < 3; i++) {
+            filmDbStorage.create(createTestFilm());
+        }
+        long queriesForFewFilms = countGenreQueries(() -> filmDbStorage.getAll());
+
+        for (int i = 0; i < 50; i++) {
+            filmDbStorage.create(createTestFilm());
+        }
+        long queriesForManyFilms = countGenreQueries(() -> filmDbStorage.getAll());
+
+        assertEquals(1, queriesForFewFilms);
+        assertEquals(queriesForFewFilms, queriesForManyFilms);
+        assertTrue(filmDbStorage.getAll().stream().allMatch(f -> f.getGenres().size() == 2));
+    }
+
+    @Test
+    void testGetPopularLoadsGenresWithConstantQueryCount() {
+        for (int i = 0; i < 20; i++) {
+            filmDbStorage.create(createTestFilm());
+        }
+
+        assertEquals(countGenreQueries(() -> filmDbStorage.getPopular(2, null, null)),
+                countGenreQueries(() -> filmDbStorage.getPopular(20, null, null)));
+    }
+
+    @Test
+    void testVersionsGrowOnEveryFilmChange() {
+        Film film = filmDbStorage.create(createTestFilm());
+        int userId = createUser("user1");
+        String catalogVersion = filmDbStorage.getCatalogVersion();
+        long version = filmDbStorage.getVersion(film.getId());
+
+        film.setName("Renamed");
+        filmDbStorage.update(film);
+        assertTrue(filmDbStorage.getVersion(film.getId()) > version);
+        version = filmDbStorage.getVersion(film.getId());
+
+        filmDbStorage.addGenre(film.getId(), 3);
+        assertTrue(filmDbStorage.getVersion(film.getId()) > version);
+        version = filmDbStorage.getVersion(film.getId());
+
+        filmDbStorage.addLike(film.getId(), userId);
+        assertTrue(filmDbStorage.getVersion(film.getId()) > version);
+        version = filmDbStorage.getVersion(film.getId());
+
+        filmDbStorage.getById(film.getId());
+        filmDbStorage.getPopular(10, null, null);
+        filmDbStorage.removeLike(film.getId(), 9999);
+        assertEquals(version, filmDbStorage.getVersion(film.getId()));
+
+        filmDbStorage.removeLike(film.getId(), userId);
+        assertTrue(filmDbStorage.getVersion(film.getId()) > version);
+        assertEquals(filmDbStorage.getVersion(film.getId()), filmDbStorage.getById(film.getId()).getVersion());
+        assertNotEquals(catalogVersion, filmDbStorage.getCatalogVersion());
+    }
+
+    @Test
+    void testCatalogVersionChangesOnlyOnCommit() {
+        Film film = filmDbStorage.create(createTestFilm());
+        int userId = createUser("user1");
+        String catalogVersion = filmDbStorage.getCatalogVersion();
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+
+        transaction.executeWithoutResult(status -> {
+            filmDbStorage.addLike(film.getId(), userId);
+            status.setRollbackOnly();
+        });
+        assertEquals(catalogVersion, filmDbStorage.getCatalogVersion());
+
+        transaction.executeWithoutResult(status -> {
+            filmDbStorage.addLike(film.getId(), userId);
+            assertEquals(catalogVersion, filmDbStorage.getCatalogVersion());
+        });
+        assertNotEquals(catalogVersion, filmDbStorage.getCatalogVersion());
+    }
+
+    @Test
+    void testAddLikeRacingUncommittedInsertIsIdempotent() throws Exception {
+        Film film = filmDbStorage.create(createTestFilm());
+        int userId = createUser("racer");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<Future<?>> racer = new ArrayList<>();
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                filmDbStorage.addLike(film.getId(), userId);
+                // вторая вставка не видит незафиксированный лайк и ждёт его фиксации
+                racer.add(executor.submit(() -> filmDbStorage.addLike(film.getId(), userId)));
+                awaitPendingInsert();
+            });
+            racer.get(0).get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM likes WHERE film_id = ? AND user_id = ?", Integer.class, film.getId(), userId));
+        assertEquals(1, getLikesCount(film.getId()));
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM events WHERE user_id = ? AND event_type = 'LIKE'", Integer.class, userId));
+        likeIndex.applyPendingChanges();
+        assertTrue(likeIndex.isLiked(userId, film.getId()));
+    }
+
     @Test
     void testGetNonExistentFilm() {
         assertThrows(org.springframework.dao.EmptyResultDataAccessException.class,
                 () -> filmDbStorage.getById(9999));
     }
 
+    @Test
+    void testIndexesChangeOnlyAfterCommit() {
+        Film film = filmDbStorage.create(createTestFilm());
+        int userId = createUser("user1");
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            filmDbStorage.addLike(film.getId(), userId);
+            assertEquals(0, filmPopularity.getLikes(film.getId()));
+        });
+        likeIndex.applyPendingChanges();
+
+        assertEquals(1, filmPopularity.getLikes(film.getId()));
+        assertTrue(likeIndex.isLiked(userId, film.getId()));
+    }
+
+    @Test
+    void testRolledBackChangesDoNotReachIndexes() {
+        Film film = filmDbStorage.create(createTestFilm());
+        int userId = createUser("user1");
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            filmDbStorage.addLike(film.getId(), userId);
+            Film rolledBack = createTestFilm();
+            rolledBack.setName("Rollback");
+            filmDbStorage.create(rolledBack);
+            filmDbStorage.removeGenre(film.getId(), 1);
+            status.setRollbackOnly();
+        });
+        likeIndex.applyPendingChanges();
+
+        assertEquals(0, getLikesCount(film.getId()));
+        assertEquals(0, filmPopularity.getLikes(film.getId()));
+        assertEquals(1, filmPopularity.size());
+        assertEquals(List.of(film.getId()), filmPopularity.getTop(10, 1, null));
+        assertFalse(likeIndex.isLiked(userId, film.getId()));
+        assertTrue(filmSearch.search("Rollback", EnumSet.allOf(FilmSearchIndex.Field.class), 10).isEmpty());
+    }
+
+    private void awaitPendingInsert() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS WHERE SESSION_ID <> SESSION_ID() " +
+                "AND EXECUTING_STATEMENT LIKE 'INSERT%'", Integer.class) == 0) {
+            assertTrue(System.nanoTime() < deadline, "вторая вставка не началась");
+            Thread.onSpinWait();
+        }
+    }
+
+    private int createUser(String login) {
+        jdbcTemplate.update("INSERT INTO users (email, login, name, birthday) VALUES (?, ?, ?, ?)",
+                login + "@mail.com", login, login, Date.valueOf(LocalDate.of(1990, 1, 1)));
+        return jdbcTemplate.queryForObject("SELECT user_id FROM users WHERE login = ?", Integer.class, login);
+    }
+
+    private List<Integer> searchIds(String query, Set<FilmSearchIndex.Field> fields) {
+        return filmDbStorage.search(query, fields, 10).stream().map(Film::getId).toList();
+    }
+
+    private int getLikesCount(int filmId) {
+        return jdbcTemplate.queryForObject("SELECT likes_count FROM films WHERE film_id = ?", Integer.class, filmId);
+    }
+
+    private long countGenreQueries(Runnable action) {
+        jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+        jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+        action.run();
+        Long count = jdbcTemplate.queryForObject("SELECT COALESCE(SUM(execution_count), 0) " +
+                "FROM information_schema.query_statistics " +
+                "WHERE LOWER(sql_statement) LIKE '%from film_genres fg%'", Long.class);
+        jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+        return count;
+    }
+
     private Film createTestFilm() {
         Film film = new Film();
         film.setName("Test Film");
@@ -0,0 +1,207 @@
+package ru.yandex.practicum.filmorate;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.event.EventDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.film.PopularityIndex;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Выполняет все операции хранилищ, собирает реально выполненные запросы из статистики H2
+ * и проверяет через EXPLAIN, что ни один из них не читает таблицы связей полным сканированием.
+ * Исключение - перечисленные в {@link #STARTUP_SCANS} проходы, строящие индексы при старте.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class QueryPlanTest {
+    // без условия после имени индекса H2 читает таблицу целиком: tableScan или обход первичного ключа
+    private static final Pattern FULL_SCAN = Pattern.compile(
+            "\"PUBLIC\"\\.\"(LIKES|FRIENDSHIPS|FILM_GENRES|EVENTS)\"(?: \"\\w+\")?\\s+/\\* PUBLIC\\.[\\w.]+ \\*/");
+    // полные проходы, которые выполняются только при старте (@PostConstruct) и строят индексы в памяти;
+    // любой другой запрос к таблицам связей обязан идти по индексу
+    private static final Set<String> STARTUP_SCANS = Set.of(
+            // rebuildPopularityIndex: жанры всех фильмов для рейтинга с фильтром по жанру
+            "SELECT film_id, genre_id FROM film_genres",
+            // rebuildLikeIndex: все лайки для битовых карт рекомендаций
+            "SELECT user_id, film_id FROM likes",
+            // rebuildFriendGraph: все дружбы, упорядоченные для сборки массивов за один проход
+            "SELECT user_id, friend_id FROM friendships ORDER BY user_id, friend_id",
+            // rebuildLastEvents: последнее событие каждого потока для слияния ленты
+            "SELECT user_id, MAX(event_id) AS last_event_id FROM events GROUP BY user_id");
+    private static final Pattern EXPLAINABLE = Pattern.compile("\\s*(SELECT|INSERT|UPDATE|DELETE|MERGE)\\b",
+            Pattern.CASE_INSENSITIVE);
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private FilmDbStorage filmStorage;
+    private UserDbStorage userStorage;
+    private LikeIndex likeIndex;
+    private EventDbStorage eventStorage;
+
+    @BeforeEach
+    void setUp() {
+        PopularityIndex popularityIndex = new PopularityIndex();
+        likeIndex = new LikeIndex();
+        eventStorage = new EventDbStorage(jdbcTemplate);
+        filmStorage = new FilmDbStorage(jdbcTemplate, transactionManager, popularityIndex, likeIndex,
+                new FilmSearchIndex(popularityIndex), eventStorage, Optional.empty());
+        userStorage = new UserDbStorage(jdbcTemplate, popularityIndex, new FriendGraph(), likeIndex, eventStorage);
+
+        jdbcTemplate.update("DELETE FROM events");
+        jdbcTemplate.update("DELETE FROM friendships");
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM film_genres");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
+    }
+
+    @Test
+    void testStorageQueriesDoNotScanLargeTables() {
+        jdbcTemplate.execute("SET QUERY_STATISTICS_MAX_ENTRIES 1000");
+        jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+        jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+        exerciseStorages();
+        List<String> statements = jdbcTemplate.queryForList(
+                "SELECT sql_statement FROM information_schema.query_statistics", String.class);
+        jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+
+        List<String> violations = new ArrayList<>();
+        for (String sql : statements) {
+            if (!EXPLAINABLE.matcher(sql).lookingAt() || sql.contains("information_schema")
+                    || STARTUP_SCANS.contains(sql)) {
+                continue;
+            }
+            String plan = explain(sql);
+            if (FULL_SCAN.matcher(plan).find()) {
+                violations.add(sql + "\n" + plan);
+            }
+        }
+
+        assertTrue(statements.size() > 20, "Не собраны запросы хранилищ: " + statements);
+        assertTrue(statements.containsAll(STARTUP_SCANS), "Устаревший список стартовых проходов: " + STARTUP_SCANS);
+        assertTrue(violations.isEmpty(), "Полное сканирование:\n" + String.join("\n\n", violations));
+    }
+
+    private void exerciseStorages() {
+        Film film = filmStorage.create(film());
+        Film other = filmStorage.createAll(List.of(film())).get(0);
+        User user = userStorage.create(user("user1"));
+        User friend = userStorage.createAll(List.of(user("user2"))).get(0);
+        User common = userStorage.create(user("user3"));
+
+        filmStorage.update(film);
+        filmStorage.getById(film.getId());
+        filmStorage.getVersion(film.getId());
+        filmStorage.getAll();
+        filmStorage.getPage(0, 10);
+        filmStorage.exportAll(f -> { });
+        filmStorage.exists(film.getId());
+        filmStorage.addGenre(film.getId(), 3);
+        filmStorage.removeGenre(film.getId(), 3);
+        filmStorage.addLike(film.getId(), user.getId());
+        filmStorage.addLike(other.getId(), friend.getId());
+        filmStorage.getPopular(10, null, null);
+        filmStorage.getPopularFromDb(10, 1, 2000);
+        likeIndex.applyPendingChanges();
+        filmStorage.getRecommendations(user.getId(), 10);
+        filmStorage.search("film", EnumSet.allOf(FilmSearchIndex.Field.class), 10);
+        filmStorage.removeLike(film.getId(), user.getId());
+
+        userStorage.update(user);
+        userStorage.getById(user.getId());
+        userStorage.getVersion(user.getId());
+        userStorage.getAll();
+        userStorage.getPage(0, 10);
+        userStorage.exportAll(u -> { });
+        userStorage.exists(user.getId());
+        userStorage.existAll(user.getId(), friend.getId());
+        userStorage.addFriend(user.getId(), friend.getId());
+        userStorage.addFriend(friend.getId(), user.getId());
+        userStorage.addFriend(user.getId(), common.getId());
+        userStorage.addFriend(friend.getId(), common.getId());
+        userStorage.getFriends(user.getId());
+        userStorage.getCommonFriends(user.getId(), friend.getId());
+        userStorage.getFriendSuggestions(friend.getId(), 10);
+        userStorage.removeFriend(user.getId(), friend.getId());
+        eventStorage.getFeed(userStorage.getFriendIds(friend.getId()), Integer.MAX_VALUE, 10);
+        eventStorage.getFeed(userStorage.getFriendIds(friend.getId()), 3, 10);
+        userStorage.delete(friend.getId());
+        filmStorage.delete(other.getId());
+
+        filmStorage.rebuildPopularityIndex();
+        filmStorage.rebuildLikeIndex();
+        filmStorage.rebuildSearchIndex();
+        userStorage.rebuildFriendGraph();
+        eventStorage.rebuildLastEvents();
+    }
+
+    private String explain(String sql) {
+        return jdbcTemplate.execute((Connection connection) -> {
+            try (PreparedStatement stmt = connection.prepareStatement("EXPLAIN " + sql)) {
+                for (int i = 1; i <= stmt.getParameterMetaData().getParameterCount(); i++) {
+                    stmt.setInt(i, 1);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    StringBuilder plan = new StringBuilder();
+                    while (rs.next()) {
+                        plan.append(rs.getString(1));
+                    }
+                    return plan.toString();
+                }
+            }
+        });
+    }
+
+    private Film film() {
+        Film film = new Film();
+        film.setName("Film");
+        film.setDescription("Description");
+        film.setReleaseDate(LocalDate.of(2020, 1, 1));
+        film.setDuration(100);
+        film.setMpa(new Mpa(1, "G"));
+        film.setGenres(Set.of(new Genre(1, "Комедия")));
+        return film;
+    }
+
+    private User user(String login) {
+        User user = new User();
+        user.setEmail(login + "@mail.com");
+        user.setLogin(login);
+        user.setName(login);
+        user.setBirthday(LocalDate.of(1990, 1, 1));
+        return user;
+    }
+}
@@ -7,26 +7,53 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.yandex.practicum.filmorate.exception.NotFoundException;
+import ru.yandex.practicum.filmorate.model.Event;
+import ru.yandex.practicum.filmorate.model.EventOperation;
+import ru.yandex.practicum.filmorate.model.EventType;
 import ru.yandex.practicum.filmorate.model.User;
+import ru.yandex.practicum.filmorate.storage.event.EventDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.film.PopularityIndex;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph;
 import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
 
 @JdbcTest
 @ActiveProfiles("test")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
 @RequiredArgsConstructor(onConstructor_ = @Autowired)
 class UserDbStorageTest {
 
     private final JdbcTemplate jdbcTemplate;
+    private final PlatformTransactionManager transactionManager;
     private UserDbStorage userStorage;
+    private FriendGraph friendGraph;
+    private EventDbStorage eventStorage;
 
     @BeforeEach
     void setUp() {
-        userStorage = new UserDbStorage(jdbcTemplate);
+        eventStorage = new EventDbStorage(jdbcTemplate);
+        friendGraph = new FriendGraph();
+        userStorage = new UserDbStorage(jdbcTemplate, new PopularityIndex(), friendGraph, new LikeIndex(),
+                eventStorage);
 
+        jdbcTemplate.update("DELETE FROM events");
         jdbcTemplate.update("DELETE FROM friendships");
         jdbcTemplate.update("DELETE FROM likes");
         jdbcTemplate.update("DELETE FROM film_genres");
@@ -50,6 +77,25 @@ class UserDbStorageTest {
         assertThat(createdUser.getLogin()).isEqualTo("testlogin");
     }
 
+    @Test
+    void testCreateAllAssignsIdsInOrder() {
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            User user = new User();
+            user.setEmail("user" + i + "@example.com");
+            user.setLogin("user" + i);
+            user.setName("User " + i);
+            user.setBirthday(LocalDate.of(1990, 1, 1));
+            users.add(user);
+        }
+
+        List<User> createdUsers = userStorage.createAll(users);
+
+        for (int i = 0; i < createdUsers.size(); i++) {
+            assertThat(userStorage.getById(createdUsers.get(i).getId()).getLogin()).isEqualTo("user" + i);
+        }
+    }
+
     @Test
     void testUpdateUser() {
         User user = new User();
@@ -67,6 +113,20 @@ class UserDbStorageTest {
         assertThat(updatedUser.getName()).isEqualTo("Updated User");
     }
 
+    @Test
+    void testVersionGrowsOnUpdate() {
+        User user = userStorage.create(createUser("user"));
+        long version = userStorage.getVersion(user.getId());
+        assertThat(userStorage.getById(user.getId()).getVersion()).isEqualTo(version);
+
+        user.setName("Renamed");
+        userStorage.update(user);
+
+        assertThat(userStorage.getVersion(user.getId())).isGreaterThan(version);
+        assertThat(userStorage.getById(user.getId()).getVersion()).isEqualTo(userStorage.getVersion(user.getId()));
+        assertThatThrownBy(() -> userStorage.getVersion(user.getId() + 100)).isInstanceOf(NotFoundException.class);
+    }
+
     @Test
     void testGetUserById() {
         User user = new User();
@@ -107,6 +167,29 @@ class UserDbStorageTest {
                 .containsExactlyInAnyOrder("user1@example.com", "user2@example.com");
     }
 
+    @Test
+    void testGetPageAfterId() {
+        User user1 = new User();
+        user1.setEmail("user1@example.com");
+        user1.setLogin("user1");
+        user1.setName("User One");
+        user1.setBirthday(LocalDate.of(1990, 1, 1));
+
+        User user2 = new User();
+        user2.setEmail("user2@example.com");
+        user2.setLogin("user2");
+        user2.setName("User Two");
+        user2.setBirthday(LocalDate.of(1991, 2, 2));
+
+        User createdUser1 = userStorage.create(user1);
+        User createdUser2 = userStorage.create(user2);
+
+        assertThat(userStorage.getPage(0, 1)).extracting(User::getId)
+                .containsExactly(createdUser1.getId());
+        assertThat(userStorage.getPage(createdUser1.getId(), 10)).extracting(User::getId)
+                .containsExactly(createdUser2.getId());
+    }
+
     @Test
     void testDeleteUser() {
         User user = new User();
@@ -122,6 +205,59 @@ class UserDbStorageTest {
         assertThat(users).isEmpty();
     }
 
+    @Test
+    void testExistenceChecks() {
+        User user = new User();
+        user.setEmail("test@example.com");
+        user.setLogin("testlogin");
+        user.setName("Test User");
+        user.setBirthday(LocalDate.of(1990, 1, 1));
+        User createdUser = userStorage.create(user);
+
+        assertThat(userStorage.exists(createdUser.getId())).isTrue();
+        assertThat(userStorage.exists(createdUser.getId() + 1)).isFalse();
+        assertThat(userStorage.existAll(createdUser.getId(), createdUser.getId())).isTrue();
+        assertThat(userStorage.existAll(createdUser.getId(), createdUser.getId() + 1)).isFalse();
+    }
+
+    @Test
+    void testUpdateMissingUserThrowsNotFound() {
+        User user = new User();
+        user.setId(9999);
+        user.setEmail("test@example.com");
+        user.setLogin("testlogin");
+        user.setBirthday(LocalDate.of(1990, 1, 1));
+
+        assertThatThrownBy(() -> userStorage.update(user)).isInstanceOf(NotFoundException.class);
+    }
+
+    @Test
+    void testAddFriendRacingUncommittedInsertIsIdempotent() throws Exception {
+        int userId = userStorage.create(createUser("racer1")).getId();
+        int friendId = userStorage.create(createUser("racer2")).getId();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            List<Future<?>> racer = new ArrayList<>();
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                userStorage.addFriend(userId, friendId);
+                // вторая вставка не видит незафиксированную строку и ждёт его фиксации
+                racer.add(executor.submit(() -> userStorage.addFriend(userId, friendId)));
+                awaitPendingInsert();
+            });
+            racer.get(0).get();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM friendships WHERE user_id = ? AND friend_id = ?",
+                Integer.class, userId, friendId)).isEqualTo(1);
+        assertThat(jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM events WHERE user_id = ? AND event_type = 'FRIEND'",
+                Integer.class, userId)).isEqualTo(1);
+        assertThat(userStorage.getFriendIds(userId)).containsExactly(friendId);
+    }
+
     @Test
     void testRemoveFriend() {
         User user1 = new User();
@@ -151,7 +287,164 @@ class UserDbStorageTest {
                 Integer.class, createdUser1.getId(), createdUser2.getId());
         assertThat(count).isZero();
     }
-}
 
+    @Test
+    void testFriendSuggestionsRankedByMutualFriends() {
+        User user = userStorage.create(createUser("user"));
+        User friend1 = userStorage.create(createUser("friend1"));
+        User friend2 = userStorage.create(createUser("friend2"));
+        User twoMutual = userStorage.create(createUser("twomutual"));
+        User oneMutual = userStorage.create(createUser("onemutual"));
+
+        userStorage.addFriend(user.getId(), friend1.getId());
+        userStorage.addFriend(user.getId(), friend2.getId());
+        userStorage.addFriend(friend1.getId(), user.getId());
+        userStorage.addFriend(friend1.getId(), friend2.getId());
+        userStorage.addFriend(friend1.getId(), oneMutual.getId());
+        userStorage.addFriend(friend1.getId(), twoMutual.getId());
+        userStorage.addFriend(friend2.getId(), twoMutual.getId());
+
+        assertThat(userStorage.getFriendSuggestions(user.getId(), 10)).extracting(User::getId)
+                .containsExactly(twoMutual.getId(), oneMutual.getId());
+        assertThat(userStorage.getFriendSuggestions(user.getId(), 1)).extracting(User::getId)
+                .containsExactly(twoMutual.getId());
+
+        userStorage.removeFriend(friend2.getId(), twoMutual.getId());
+        assertThat(userStorage.getFriendSuggestions(user.getId(), 10)).extracting(User::getId)
+                .containsExactly(twoMutual.getId(), oneMutual.getId());
+        assertThat(userStorage.getFriendSuggestions(friend2.getId(), 10)).isEmpty();
+    }
 
+    @Test
+    void testGetCommonFriends() {
+        User user = userStorage.create(createUser("user"));
+        User other = userStorage.create(createUser("other"));
+        User common1 = userStorage.create(createUser("common1"));
+        User common2 = userStorage.create(createUser("common2"));
+        User onlyUser = userStorage.create(createUser("onlyuser"));
+
+        userStorage.addFriend(user.getId(), common2.getId());
+        userStorage.addFriend(user.getId(), common1.getId());
+        userStorage.addFriend(user.getId(), onlyUser.getId());
+        userStorage.addFriend(other.getId(), common1.getId());
+        userStorage.addFriend(other.getId(), common2.getId());
+
+        assertThat(userStorage.getCommonFriends(user.getId(), other.getId())).extracting(User::getLogin)
+                .containsExactly("common1", "common2");
+
+        userStorage.removeFriend(other.getId(), common1.getId());
+        assertThat(userStorage.getCommonFriends(other.getId(), user.getId())).extracting(User::getLogin)
+                .containsExactly("common2");
+    }
+
+    @Test
+    void testRolledBackFriendshipDoesNotReachGraph() {
+        User user = userStorage.create(createUser("user"));
+        User friend = userStorage.create(createUser("friend"));
+        User other = userStorage.create(createUser("other"));
+        userStorage.addFriend(user.getId(), other.getId());
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            userStorage.addFriend(user.getId(), friend.getId());
+            userStorage.removeFriend(user.getId(), other.getId());
+            status.setRollbackOnly();
+        });
+
+        assertThat(friendGraph.getFriends(user.getId())).containsExactly(other.getId());
+        assertThat(userStorage.getFriendIds(user.getId())).containsExactly(other.getId());
+    }
 
+    @Test
+    void testRebuildFriendGraphFromFriendships() {
+        User user = userStorage.create(createUser("user"));
+        User friend = userStorage.create(createUser("friend"));
+        User candidate = userStorage.create(createUser("candidate"));
+        jdbcTemplate.update("INSERT INTO friendships (user_id, friend_id) VALUES (?, ?), (?, ?)",
+                user.getId(), friend.getId(), friend.getId(), candidate.getId());
+
+        assertThat(userStorage.getFriendSuggestions(user.getId(), 10)).isEmpty();
+
+        userStorage.rebuildFriendGraph();
+
+        assertThat(userStorage.getFriendSuggestions(user.getId(), 10)).extracting(User::getId)
+                .containsExactly(candidate.getId());
+    }
+
+    @Test
+    void testFeedMergesFriendsAndCatalogNewestFirst() {
+        User user = userStorage.create(createUser("user"));
+        User friend = userStorage.create(createUser("friend"));
+        User other = userStorage.create(createUser("other"));
+        User stranger = userStorage.create(createUser("stranger"));
+        userStorage.addFriend(user.getId(), friend.getId());
+        userStorage.addFriend(user.getId(), other.getId());
+
+        userStorage.addFriend(friend.getId(), stranger.getId());
+        eventStorage.add(Event.of(null, EventType.FILM, EventOperation.ADD, 7));
+        eventStorage.add(Event.of(other.getId(), EventType.LIKE, EventOperation.ADD, 7));
+        eventStorage.add(Event.of(stranger.getId(), EventType.LIKE, EventOperation.ADD, 7));
+        userStorage.addFriend(friend.getId(), stranger.getId());
+        userStorage.removeFriend(friend.getId(), stranger.getId());
+
+        List<Event> feed = eventStorage.getFeed(userStorage.getFriendIds(user.getId()), Integer.MAX_VALUE, 10);
+
+        assertThat(feed).extracting(Event::getUserId, Event::getEventType, Event::getOperation)
+                .containsExactly(
+                        tuple(friend.getId(), EventType.FRIEND, EventOperation.REMOVE),
+                        tuple(other.getId(), EventType.LIKE, EventOperation.ADD),
+                        tuple(null, EventType.FILM, EventOperation.ADD),
+                        tuple(friend.getId(), EventType.FRIEND, EventOperation.ADD));
+        assertThat(feed.get(0).getTimestamp()).isPositive();
+    }
+
+    @Test
+    void testFeedPagesFollowMergedOrder() {
+        User user = userStorage.create(createUser("user"));
+        List<Integer> friendIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            User friend = userStorage.create(createUser("friend" + i));
+            userStorage.addFriend(user.getId(), friend.getId());
+            friendIds.add(friend.getId());
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            // первый друг активнее остальных, чтобы его поток перечитывался блоками
+            Integer author = i % 4 == 3 ? null : friendIds.get(i % 5 == 0 ? 1 + i % 2 : 0);
+            Event event = Event.of(author, EventType.LIKE, EventOperation.ADD, i);
+            eventStorage.add(event);
+            expected.add(0, event.getEventId());
+        }
+        eventStorage.rebuildLastEvents();
+
+        int[] authorIds = userStorage.getFriendIds(user.getId());
+        List<Integer> paged = new ArrayList<>();
+        int before = Integer.MAX_VALUE;
+        List<Event> page;
+        do {
+            page = eventStorage.getFeed(authorIds, before, 7);
+            page.forEach(event -> paged.add(event.getEventId()));
+            before = page.isEmpty() ? before : page.getLast().getEventId();
+        } while (page.size() == 7);
+
+        assertThat(paged).isEqualTo(expected);
+    }
+
+    private void awaitPendingInsert() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM INFORMATION_SCHEMA.SESSIONS WHERE SESSION_ID <> SESSION_ID() " +
+                "AND EXECUTING_STATEMENT LIKE 'INSERT%'", Integer.class) == 0) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.onSpinWait();
+        }
+    }
+
+    private User createUser(String login) {
+        User user = new User();
+        user.setEmail(login + "@example.com");
+        user.setLogin(login);
+        user.setName(login);
+        user.setBirthday(LocalDate.of(1990, 1, 1));
+        return user;
+    }
+}
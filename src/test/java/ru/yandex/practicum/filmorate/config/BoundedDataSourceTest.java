@@ -0,0 +1,44 @@
+package ru.yandex.practicum.filmorate.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BoundedDataSourceTest {
+
+    @Test
+    void testPermitReturnedWhenConnectionClosed() throws Exception {
+        try (BoundedDataSource dataSource = new BoundedDataSource(pool(), 1, Duration.ofMillis(50))) {
+            Connection connection = dataSource.getConnection();
+            assertEquals(0, dataSource.getAvailablePermits());
+            assertThrows(SQLTransientConnectionException.class, dataSource::getConnection);
+
+            connection.close();
+            connection.close();
+            assertEquals(1, dataSource.getAvailablePermits());
+        }
+    }
+
+    @Test
+    void testCloseClosesPool() throws Exception {
+        HikariDataSource pool = pool();
+        BoundedDataSource dataSource = new BoundedDataSource(pool, 1, Duration.ofMillis(50));
+        dataSource.getConnection().close();
+
+        dataSource.close();
+
+        assertTrue(pool.isClosed());
+    }
+
+    private static HikariDataSource pool() {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setJdbcUrl("jdbc:h2:mem:bounded;DB_CLOSE_DELAY=-1");
+        pool.setMaximumPoolSize(2);
+        return pool;
+    }
+}
@@ -0,0 +1,81 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConditionalGetTest {
+
+    @Test
+    void testMatchesExactWeakListAndWildcard() {
+        String etag = ConditionalGet.etag("7");
+
+        assertEquals("\"7\"", etag);
+        assertTrue(ConditionalGet.matches("\"7\"", etag));
+        assertTrue(ConditionalGet.matches("W/\"7\"", etag));
+        assertTrue(ConditionalGet.matches("\"5\", W/\"7\"", etag));
+        assertTrue(ConditionalGet.matches("\"5\",\"7\"", etag));
+        assertTrue(ConditionalGet.matches("*", etag));
+
+        assertFalse(ConditionalGet.matches(null, etag));
+        assertFalse(ConditionalGet.matches("\"8\"", etag));
+        assertFalse(ConditionalGet.matches("\"5\", W/\"8\"", etag));
+        assertFalse(ConditionalGet.matches("7", etag));
+    }
+
+    @Test
+    void testGzipEtagDiffersButMatchesSameVersion() {
+        String etag = ConditionalGet.etag("7");
+        String gzipEtag = ConditionalGet.gzipEtag(etag);
+
+        assertEquals("\"7-gz\"", gzipEtag);
+        assertTrue(ConditionalGet.matches(gzipEtag, etag));
+        assertEquals(gzipEtag, ConditionalGet.match("W/\"7-gz\"", etag));
+        assertEquals(etag, ConditionalGet.match("\"5-gz\", \"7\"", etag));
+        assertNull(ConditionalGet.match("\"8-gz\"", etag));
+        assertNull(ConditionalGet.match("\"7-gzip\"", etag));
+    }
+
+    @Test
+    void testNotModifiedDoesNotBuildBody() {
+        ResponseEntity<String> response = ConditionalGet.respond("W/\"3\"", "3", () -> {
+            throw new AssertionError("тело не должно строиться");
+        });
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertEquals("\"3\"", response.getHeaders().getETag());
+        assertNull(response.getBody());
+    }
+
+    @Test
+    void testModifiedReturnsBodyWithEtag() {
+        ResponseEntity<String> response = ConditionalGet.respond("\"2\"", "3", () -> "body");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("\"3\"", response.getHeaders().getETag());
+        assertEquals("body", response.getBody());
+    }
+
+    @Test
+    void testVersionedBodyCarriesItsOwnEtag() {
+        // в кэше лежит тело версии 4, в базе уже версия 5
+        ResponseEntity<String> response = ConditionalGet.respond(null, () -> {
+            throw new AssertionError("без If-None-Match версия из базы не нужна");
+        }, () -> "cached", body -> 4);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("\"4\"", response.getHeaders().getETag());
+
+        ResponseEntity<String> stale = ConditionalGet.respond("\"4\"", () -> 5, () -> "fresh", body -> 5);
+        assertEquals(HttpStatus.OK, stale.getStatusCode());
+        assertEquals("\"5\"", stale.getHeaders().getETag());
+
+        ResponseEntity<String> notModified = ConditionalGet.respond("\"5\"", () -> 5, () -> {
+            throw new AssertionError("тело не должно строиться");
+        }, body -> 5);
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+        assertEquals("\"5\"", notModified.getHeaders().getETag());
+    }
+}
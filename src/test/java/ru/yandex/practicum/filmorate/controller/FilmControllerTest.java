@@ -0,0 +1,268 @@
+package ru.yandex.practicum.filmorate.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.config.PopularResponseCacheProperties;
+import ru.yandex.practicum.filmorate.exception.GlobalExceptionHandler;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Genre;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.service.ExportService;
+import ru.yandex.practicum.filmorate.service.FilmService;
+import ru.yandex.practicum.filmorate.service.PopularResponseCache;
+import ru.yandex.practicum.filmorate.storage.event.EventDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.GenreDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.film.MpaDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.PopularityIndex;
+import ru.yandex.practicum.filmorate.storage.film.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@JdbcTest
+@AutoConfigureTestDatabase
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class FilmControllerTest {
+    private static final int FILMS = 10;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final ObjectMapper objectMapper = JsonMapper.builder()
+            .findAndAddModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+    private FilmDbStorage filmStorage;
+    private PopularResponseCache popularResponseCache;
+    private MockMvc mockMvc;
+    private final List<Film> films = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM events");
+        jdbcTemplate.update("DELETE FROM friendships");
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM film_genres");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
+
+        PopularityIndex popularityIndex = new PopularityIndex();
+        LikeIndex likeIndex = new LikeIndex();
+        EventDbStorage eventStorage = new EventDbStorage(jdbcTemplate);
+        filmStorage = new FilmDbStorage(jdbcTemplate, transactionManager, popularityIndex, likeIndex,
+                new FilmSearchIndex(popularityIndex), eventStorage, Optional.empty());
+        UserDbStorage userStorage = new UserDbStorage(jdbcTemplate, popularityIndex, new FriendGraph(), likeIndex,
+                eventStorage);
+        ReferenceDataCache referenceDataCache = new ReferenceDataCache(new GenreDbStorage(jdbcTemplate),
+                new MpaDbStorage(jdbcTemplate));
+        referenceDataCache.refresh();
+        FilmService filmService = new FilmService(filmStorage, userStorage, referenceDataCache);
+        popularResponseCache = new PopularResponseCache(filmService, popularityIndex,
+                objectMapper, new PopularResponseCacheProperties());
+        FilmController controller = new FilmController(filmService,
+                new ExportService(filmStorage, userStorage, objectMapper), popularResponseCache);
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new GlobalExceptionHandler())
+                .build();
+
+        for (int i = 0; i < FILMS; i++) {
+            films.add(filmStorage.create(film(i)));
+        }
+        filmStorage.rebuildPopularityIndex();
+    }
+
+    @Test
+    void testPopularNotModifiedByEtag() throws Exception {
+        String etag = mockMvc.perform(get("/films/popular").param("count", "10"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/films/popular").param("count", "10").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+        mockMvc.perform(get("/films/popular").param("count", "10").header(HttpHeaders.IF_NONE_MATCH, "\"other\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void testPopularNotModifiedWithoutBuildingResponse() throws Exception {
+        String etag = mockMvc.perform(get("/films/popular").param("count", "10"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        long misses = popularResponseCache.getMisses();
+
+        // ответа на count=5 в кэше нет, но версия каталога та же - 304 отдаётся без его построения
+        mockMvc.perform(get("/films/popular").param("count", "5").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+        assertEquals(misses, popularResponseCache.getMisses());
+        assertEquals(1, popularResponseCache.size());
+
+        mockMvc.perform(get("/films/popular").param("count", "0").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void testPopularGzipHasOwnEtag() throws Exception {
+        String plainEtag = mockMvc.perform(get("/films/popular").param("count", "10"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        String gzipEtag = mockMvc.perform(get("/films/popular").param("count", "10")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        assertNotEquals(plainEtag, gzipEtag);
+        mockMvc.perform(get("/films/popular").param("count", "10")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                        .header(HttpHeaders.IF_NONE_MATCH, gzipEtag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, gzipEtag));
+        mockMvc.perform(get("/films/popular").param("count", "10").header(HttpHeaders.IF_NONE_MATCH, plainEtag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, plainEtag));
+    }
+
+    @Test
+    void testPopularGzipOnlyWhenAccepted() throws Exception {
+        byte[] plain = mockMvc.perform(get("/films/popular").param("count", "10"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        byte[] gzipped = mockMvc.perform(get("/films/popular").param("count", "10")
+                        .header(HttpHeaders.ACCEPT_ENCODING, "deflate, gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andReturn().getResponse().getContentAsByteArray();
+        assertArrayEquals(plain, gunzip(gzipped));
+        assertEquals(FILMS, objectMapper.readTree(plain).size());
+
+        mockMvc.perform(get("/films/popular").param("count", "10").header(HttpHeaders.ACCEPT_ENCODING, "gzip;q=0"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING));
+        // маленький ответ не сжимается, даже если клиент согласен
+        mockMvc.perform(get("/films/popular").param("count", "1").header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING));
+    }
+
+    @Test
+    void testPopularRejectsNonPositiveCount() throws Exception {
+        mockMvc.perform(get("/films/popular").param("count", "0")).andExpect(status().isBadRequest());
+        mockMvc.perform(get("/films/popular").param("count", "-1")).andExpect(status().isBadRequest());
+
+        byte[] body = mockMvc.perform(get("/films/popular").param("count", "200"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray();
+        assertEquals(FILMS, objectMapper.readTree(body).size());
+    }
+
+    @Test
+    void testFilmNotModifiedUntilChanged() throws Exception {
+        Film film = films.get(0);
+        String etag = mockMvc.perform(get("/films/{id}", film.getId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        mockMvc.perform(get("/films/{id}", film.getId()).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified());
+
+        film.setName("Renamed");
+        filmStorage.update(film);
+        String changed = mockMvc.perform(get("/films/{id}", film.getId()).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, changed);
+    }
+
+    @Test
+    void testCompactViewReplacesObjectsWithIds() throws Exception {
+        Film film = film(FILMS);
+        film.setGenres(Set.of(new Genre(1, "Комедия"), new Genre(2, "Драма")));
+        int filmId = filmStorage.create(film).getId();
+
+        JsonNode full = findFilm(mockMvc.perform(get("/films"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray(), filmId);
+        assertEquals(1, full.get("mpa").get("id").asInt());
+        assertEquals(2, full.get("genres").size());
+
+        JsonNode compact = findFilm(mockMvc.perform(get("/films").param("view", "compact"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsByteArray(), filmId);
+        assertEquals(film.getName(), compact.get("name").asText());
+        assertEquals(1, compact.get("mpaId").asInt());
+        assertEquals(List.of(1, 2), objectMapper.convertValue(compact.get("genreIds"), List.class));
+        assertFalse(compact.has("mpa"));
+        assertFalse(compact.has("genres"));
+    }
+
+    @Test
+    void testUnknownViewRejected() throws Exception {
+        mockMvc.perform(get("/films").param("view", "brief")).andExpect(status().isBadRequest());
+    }
+
+    private JsonNode findFilm(byte[] body, int filmId) throws IOException {
+        for (JsonNode node : objectMapper.readTree(body)) {
+            if (node.get("id").asInt() == filmId) {
+                return node;
+            }
+        }
+        return fail("Фильм " + filmId + " не найден в ответе");
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static Film film(int i) {
+        Film film = new Film();
+        film.setName("Film " + i);
+        film.setDescription("Длинное описание фильма номер " + i + ", чтобы ответ с десятью фильмами был больше "
+                + "порога сжатия");
+        film.setReleaseDate(LocalDate.of(2000 + i, 1, 1));
+        film.setDuration(90 + i);
+        film.setMpa(new Mpa(1, "G"));
+        return film;
+    }
+}
@@ -0,0 +1,238 @@
+package ru.yandex.practicum.filmorate.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.yandex.practicum.filmorate.config.PopularResponseCacheProperties;
+import ru.yandex.practicum.filmorate.exception.ValidationException;
+import ru.yandex.practicum.filmorate.model.Film;
+import ru.yandex.practicum.filmorate.model.Mpa;
+import ru.yandex.practicum.filmorate.storage.event.EventDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.FilmSearchIndex;
+import ru.yandex.practicum.filmorate.storage.film.GenreDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.LikeIndex;
+import ru.yandex.practicum.filmorate.storage.film.MpaDbStorage;
+import ru.yandex.practicum.filmorate.storage.film.PopularityIndex;
+import ru.yandex.practicum.filmorate.storage.film.ReferenceDataCache;
+import ru.yandex.practicum.filmorate.storage.user.FriendGraph;
+import ru.yandex.practicum.filmorate.storage.user.UserDbStorage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Date;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@JdbcTest
+@AutoConfigureTestDatabase
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PopularResponseCacheTest {
+    private static final int FILMS = 10;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final ObjectMapper objectMapper = JsonMapper.builder()
+            .findAndAddModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+    private PopularityIndex popularityIndex;
+    private FilmDbStorage filmStorage;
+    private FilmService filmService;
+    private final List<Integer> filmIds = new ArrayList<>();
+    private int userId;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("DELETE FROM events");
+        jdbcTemplate.update("DELETE FROM friendships");
+        jdbcTemplate.update("DELETE FROM likes");
+        jdbcTemplate.update("DELETE FROM film_genres");
+        jdbcTemplate.update("DELETE FROM films");
+        jdbcTemplate.update("DELETE FROM users");
+
+        popularityIndex = new PopularityIndex();
+        LikeIndex likeIndex = new LikeIndex();
+        EventDbStorage eventStorage = new EventDbStorage(jdbcTemplate);
+        filmStorage = new FilmDbStorage(jdbcTemplate, transactionManager, popularityIndex, likeIndex,
+                new FilmSearchIndex(popularityIndex), eventStorage, Optional.empty());
+        UserDbStorage userStorage = new UserDbStorage(jdbcTemplate, popularityIndex, new FriendGraph(), likeIndex,
+                eventStorage);
+        ReferenceDataCache referenceDataCache = new ReferenceDataCache(new GenreDbStorage(jdbcTemplate),
+                new MpaDbStorage(jdbcTemplate));
+        referenceDataCache.refresh();
+        filmService = new FilmService(filmStorage, userStorage, referenceDataCache);
+
+        for (int i = 0; i < FILMS; i++) {
+            filmIds.add(filmStorage.create(film(i)).getId());
+        }
+        jdbcTemplate.update("INSERT INTO users (email, login, name, birthday) VALUES (?, ?, ?, ?)",
+                "user@mail.com", "user", "user", Date.valueOf(LocalDate.of(1990, 1, 1)));
+        userId = jdbcTemplate.queryForObject("SELECT user_id FROM users WHERE login = ?", Integer.class, "user");
+        filmStorage.rebuildPopularityIndex();
+    }
+
+    @Test
+    void testRepeatedRequestIsServedFromCache() {
+        PopularResponseCache cache = cache(Duration.ofMinutes(1), 100, true);
+
+        PopularResponseCache.Response first = cache.get(FILMS, null, null);
+        PopularResponseCache.Response second = cache.get(FILMS, null, null);
+        cache.get(5, null, null);
+
+        assertSame(first, second);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.size());
+        assertEquals(1.0 / 3, cache.getHitRate(), 1e-9);
+    }
+
+    @Test
+    void testChangesReachResponseOnRefresh() throws IOException {
+        PopularResponseCache cache = cache(Duration.ofMinutes(1), 1, true);
+        PopularResponseCache.Response first = cache.get(1, null, null);
+        int lastFilmId = filmIds.get(FILMS - 1);
+
+        filmStorage.addLike(lastFilmId, userId);
+        assertSame(first, cache.get(1, null, null));
+
+        cache.refresh();
+        PopularResponseCache.Response refreshed = cache.get(1, null, null);
+
+        assertNotSame(first, refreshed);
+        assertEquals(List.of(lastFilmId), ids(refreshed.json()));
+        assertNotEquals(first.version(), refreshed.version());
+    }
+
+    @Test
+    void testExpiredResponseIsRebuiltEvenWithoutChanges() throws InterruptedException {
+        PopularResponseCache cache = cache(Duration.ofMillis(50), 100, true);
+        PopularResponseCache.Response first = cache.get(FILMS, null, null);
+
+        Thread.sleep(60);
+        PopularResponseCache.Response second = cache.get(FILMS, null, null);
+
+        assertNotSame(first, second);
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    void testConcurrentMissesShareOneBuild() throws Exception {
+        PopularResponseCache cache = cache(Duration.ofMinutes(1), 100, true);
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<PopularResponseCache.Response>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return cache.get(FILMS, null, null);
+                }));
+            }
+            start.countDown();
+
+            Map<PopularResponseCache.Response, Boolean> distinct = new IdentityHashMap<>();
+            for (Future<PopularResponseCache.Response> future : futures) {
+                distinct.put(future.get(), true);
+            }
+            assertEquals(1, distinct.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testGzipOnlyForLargeResponses() throws IOException {
+        PopularResponseCache cache = cache(Duration.ofMinutes(1), 100, true);
+
+        PopularResponseCache.Response large = cache.get(FILMS, null, null);
+        PopularResponseCache.Response small = cache.get(1, null, null);
+        PopularResponseCache.Response disabled = cache(Duration.ofMinutes(1), 100, false).get(FILMS, null, null);
+
+        assertTrue(large.json().length >= 1024);
+        assertNotNull(large.gzipped());
+        assertTrue(large.gzipped().length < large.json().length);
+        assertArrayEquals(large.json(), gunzip(large.gzipped()));
+        assertTrue(small.json().length < 1024);
+        assertNull(small.gzipped());
+        assertNull(disabled.gzipped());
+    }
+
+    @Test
+    void testInvalidCountIsNotCached() {
+        PopularResponseCache cache = cache(Duration.ofMinutes(1), 100, true);
+
+        assertThrows(ValidationException.class, () -> cache.get(0, null, null));
+        assertThrows(ValidationException.class, () -> cache.get(-1, null, null));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testLargeCountServedWithoutCaching() throws IOException {
+        PopularResponseCache cache = cache(Duration.ofMinutes(1), 100, true);
+
+        assertEquals(FILMS, ids(cache.get(1000, null, null).json()).size());
+        assertEquals(0, cache.size());
+        cache.get(100, null, null);
+        assertEquals(1, cache.size());
+    }
+
+    private PopularResponseCache cache(Duration maxStaleness, int changeThreshold, boolean gzip) {
+        PopularResponseCacheProperties properties = new PopularResponseCacheProperties();
+        properties.setMaxStaleness(maxStaleness);
+        properties.setChangeThreshold(changeThreshold);
+        properties.setGzip(gzip);
+        return new PopularResponseCache(filmService, popularityIndex, objectMapper, properties);
+    }
+
+    private List<Integer> ids(byte[] json) throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        objectMapper.readTree(json).forEach(film -> ids.add(film.get("id").asInt()));
+        return ids;
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static Film film(int i) {
+        Film film = new Film();
+        film.setName("Film " + i);
+        film.setDescription("Длинное описание фильма номер " + i + ", чтобы ответ с десятью фильмами был больше "
+                + "порога сжатия");
+        film.setReleaseDate(LocalDate.of(2000 + i, 1, 1));
+        film.setDuration(90 + i);
+        film.setMpa(new Mpa(1, "G"));
+        return film;
+    }
+}